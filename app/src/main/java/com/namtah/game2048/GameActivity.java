@@ -5,6 +5,7 @@ import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.os.Build;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -15,11 +16,23 @@ import android.view.Window;
 import android.view.WindowManager;
 import android.widget.TextView;
 
+import com.namtah.game2048.engine.HintCache;
+import com.namtah.game2048.engine.Metrics;
+import com.namtah.game2048.engine.MoveJournal;
+import com.namtah.game2048.engine.NTupleNetwork;
+import com.namtah.game2048.engine.Snapshot;
+import com.namtah.game2048.engine.SnapshotWriter;
+import com.namtah.game2048.widget.BoardSurfaceView;
 import com.namtah.game2048.widget.GameView;
 
+import java.io.File;
+import java.io.IOException;
+
 public class GameActivity extends AppCompatActivity {
 
     private static final String TAG = "GameActivity";
+    private static final int HINT_CACHE_CAPACITY = 1 << 16;     //提示缓存的项数，文件约2.6MB
+    private static final int SURFACE_MIN_BASE = 16;             //阶数不小于它时在渲染线程中绘制
     GameView viewGame;
     TextView tvBestScore, tvScore, tvRestart;
     int mBestScore, mScore;
@@ -27,6 +40,12 @@ public class GameActivity extends AppCompatActivity {
     GameOverlayDialog mDialog;
     DisplayMetrics mScreenMetrics;
     boolean mAlreadyWin;
+    SnapshotWriter mSnapshotWriter;                 //在后台写入存档
+    MoveJournal mJournal;                           //走法日志，打开失败时为null
+    HintCache mHintCache;                           //提示缓存，只用于4阶面板，打开失败时为null
+    final Metrics mMetrics = new Metrics();         //引擎和存档的性能指标，退出时打印
+    Metrics.Timer mSaveTimer, mLoadTimer;
+    Metrics.Counter mSteps;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -58,9 +77,43 @@ public class GameActivity extends AppCompatActivity {
         if (mBase == 0) {
             mBase = getIntent().getIntExtra("base", 4);
         }
+        //大面板的一帧很重，交给渲染线程画，不卡住触摸和对话框；Choreographer需要API 16
+        if (mBase >= SURFACE_MIN_BASE && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            BoardSurfaceView surface = findViewById(R.id.view_board_surface);
+            surface.setVisibility(View.VISIBLE);
+            viewGame.setRenderSurface(surface);
+        }
 
+        mSaveTimer = mMetrics.timer("game.save");
+        mLoadTimer = mMetrics.timer("game.load");
+        mSteps = mMetrics.counter("game.steps");
+        viewGame.setMetrics(mMetrics);
+        mSnapshotWriter = new SnapshotWriter(new File(getFilesDir(), "base-" + mBase + ".snapshot"));
+        mSnapshotWriter.setMetrics(mMetrics);
+        viewGame.setSnapshotWriter(mSnapshotWriter);
         load();
-        viewGame.load(mBase);
+        try {
+            mJournal = new MoveJournal(new File(getFilesDir(), "base-" + mBase + ".journal"));
+            viewGame.setJournal(mJournal, mScore);
+        } catch (IOException e) {
+            Log.w(TAG, "onCreate: 无法打开走法日志", e);
+        }
+        File network = new File(getFilesDir(), "ntuple.bin");
+        if (mBase == 4 && network.exists()) {
+            try {
+                viewGame.setHintNetwork(NTupleNetwork.map(network, false));
+            } catch (IOException e) {
+                Log.w(TAG, "onCreate: 无法加载估值网络", e);
+            }
+        }
+        if (mBase == 4) {
+            try {
+                mHintCache = HintCache.map(new File(getFilesDir(), "hints.cache"), HINT_CACHE_CAPACITY);
+                viewGame.setHintCache(mHintCache);
+            } catch (IOException e) {
+                Log.w(TAG, "onCreate: 无法打开提示缓存", e);
+            }
+        }
 
         tvScore.setText(String.valueOf(mScore));
         tvBestScore.setText(String.valueOf(mBestScore));
@@ -69,43 +122,50 @@ public class GameActivity extends AppCompatActivity {
             @Override
             public void onStepOver(int stepScore, int stepMax) {        //一步结束
 //                Log.d(TAG, "onStepOver: ------stepScore-" + stepScore + ", stepMax-" + stepMax + "------");
+                mSteps.increment();
 
                 if (stepMax >= 0x40000000 || mScore + stepScore >= 0x40000000) {
                     mDialog.setTitle("恭喜达到最大值")
                             .setScore(mScore)
                             .showContinueButton(false)
                             .show(mScreenMetrics.widthPixels, mScreenMetrics.heightPixels);
-                    viewGame.load(mBase);
+                    viewGame.load(viewGame.getLastSnapshot());
+                    viewGame.setJournal(mJournal, mScore);
                     return;
                 }
 
-                viewGame.save();
                 if (stepScore > 0) {
                     mScore += stepScore;
                     tvScore.setText(String.valueOf(mScore));
                     if (mScore > mBestScore) {
                         mBestScore = mScore;
                         tvBestScore.setText(String.valueOf(mBestScore));
-                        save(mScore, mBestScore);
-                    } else {
-                        save(mScore);
                     }
                 }
+                boolean win = !mAlreadyWin && stepMax == 2048;
+                if (win) {
+                    mAlreadyWin = true;
+                }
+                save();
                 if (!viewGame.checkAccessibility()) {   //如果走不通了
                     Log.i(TAG, "onStepOver: 走不通了");
                     mDialog.setTitle("游戏结束")
                             .setScore(mScore)
                             .showContinueButton(false)
                             .show(mScreenMetrics.widthPixels, mScreenMetrics.heightPixels);
-                } else if (!mAlreadyWin && stepMax == 2048) {
-                    mAlreadyWin = true;
-                    save(mAlreadyWin);
+                } else if (win) {
                     mDialog.setTitle("游戏成功")
                             .setScore(mScore)
                             .showContinueButton(true)
                             .show(mScreenMetrics.widthPixels, mScreenMetrics.heightPixels);
                 }
             }
+
+            @Override
+            public void onScoreRestored(long score) {        //撤销或重做，GameView已经存档
+                mScore = (int) score;
+                tvScore.setText(String.valueOf(mScore));
+            }
         });
 
         tvRestart.setOnClickListener(new View.OnClickListener() {
@@ -114,6 +174,17 @@ public class GameActivity extends AppCompatActivity {
                 restartGame();
             }
         });
+
+        //调试版长按标题显示或隐藏帧统计浮层
+        if (BuildConfig.DEBUG) {
+            findViewById(R.id.text_title).setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View v) {
+                    viewGame.setDebugOverlay(!viewGame.isDebugOverlay());
+                    return true;
+                }
+            });
+        }
     }
 
 
@@ -123,38 +194,64 @@ public class GameActivity extends AppCompatActivity {
         getWindowManager().getDefaultDisplay().getMetrics(mScreenMetrics);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mSnapshotWriter.close(0);
+        if (mJournal != null) {
+            mJournal.close(0);
+        }
+        if (mHintCache != null) {
+            Log.d(TAG, "onDestroy: 提示缓存 " + mHintCache.size() + "/" + mHintCache.capacity()
+                    + "项，命中率" + mHintCache.getHitRatio());
+            mHintCache.flush();
+        }
+        Log.d(TAG, "onDestroy: 帧统计 " + viewGame.getFrameStats());
+        long steps = mSteps.get();
+        Log.d(TAG, "onDestroy: 性能指标，每步写入存档"
+                + (steps == 0 ? 0 : (float) mMetrics.counter(Metrics.SNAPSHOT_WRITES).get() / steps) + "次\n"
+                + mMetrics.toText());
+        Log.d(TAG, "onDestroy: " + mMetrics.toJson());
+    }
+
     void restartGame() {
         viewGame.restartGame();
         mAlreadyWin = false;
         mScore = 0;
         tvScore.setText(String.valueOf(mScore));
-        save(mScore);
-        save(mAlreadyWin);
+        save();
     }
 
     void load() {
-        SharedPreferences sp = getSharedPreferences("base-" + mBase, MODE_PRIVATE);
-        mScore = sp.getInt("score", 0);
-        mBestScore = sp.getInt("best-score", 0);
-        mAlreadyWin = sp.getBoolean("win", false);
-    }
-
-    void save(int score) {
-        SharedPreferences.Editor editor = getSharedPreferences("base-" + mBase, MODE_PRIVATE).edit();
-        editor.putInt("score", score).apply();
-    }
-
-    void save(int score, int bestScore) {
-        SharedPreferences.Editor editor = getSharedPreferences("base-" + mBase, MODE_PRIVATE).edit();
-        editor.putInt("score", score);
-        editor.putInt("best-score", bestScore);
-        editor.apply();
+        long start = System.nanoTime();
+        Snapshot snapshot = null;
+        try {
+            snapshot = Snapshot.readFrom(mSnapshotWriter.getFile());
+        } catch (IOException e) {
+            Log.w(TAG, "load: 存档损坏，使用旧数据", e);
+        }
+        if (snapshot != null && snapshot.getNumber() == mBase) {
+            mScore = (int) snapshot.getScore();
+            mBestScore = (int) snapshot.getBestScore();
+            mAlreadyWin = snapshot.isWin();
+            viewGame.load(snapshot);
+        } else {
+            //旧版本把数据逐项保存在SharedPreferences中，读出来后立即转存为新的存档
+            SharedPreferences sp = getSharedPreferences("base-" + mBase, MODE_PRIVATE);
+            mScore = sp.getInt("score", 0);
+            mBestScore = sp.getInt("best-score", 0);
+            mAlreadyWin = sp.getBoolean("win", false);
+            viewGame.load(mBase);
+        }
+        mLoadTimer.recordSince(start);
+        save();
     }
 
-    void save(boolean win) {
-        SharedPreferences.Editor editor = getSharedPreferences("base-" + mBase, MODE_PRIVATE).edit();
-        editor.putBoolean("win", win);
-        editor.apply();
+    //保存面板、分数、最高分和是否赢过，在后台写入，连续多步只写最后一步
+    void save() {
+        long start = System.nanoTime();
+        viewGame.save(mScore, mBestScore, mAlreadyWin);
+        mSaveTimer.recordSince(start);
     }
 
 //    @Override
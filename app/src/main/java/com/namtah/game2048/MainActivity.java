@@ -1,6 +1,8 @@
 package com.namtah.game2048;
 
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.view.View;
@@ -8,7 +10,9 @@ import android.widget.TextView;
 
 public class MainActivity extends AppCompatActivity implements View.OnClickListener {
 
-    TextView selectFour, selectFive, selectSix;
+    private static final int[] HUGE_BASES = {32, 64, 128};     //大面板可选的阶数
+
+    TextView selectFour, selectFive, selectSix, selectHuge;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -18,10 +22,12 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         selectFour = findViewById(R.id.selectFour);
         selectFive = findViewById(R.id.selectFive);
         selectSix = findViewById(R.id.selectSix);
+        selectHuge = findViewById(R.id.selectHuge);
 
         selectFour.setOnClickListener(this);
         selectFive.setOnClickListener(this);
         selectSix.setOnClickListener(this);
+        selectHuge.setOnClickListener(this);
 
     }
 
@@ -39,6 +45,26 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             Intent intent = new Intent(MainActivity.this, GameActivity.class);
             intent.putExtra("base", 16);
             startActivity(intent);
+        } else if (v.getId() == R.id.selectHuge) {
+            selectHugeBase();
+        }
+    }
+
+    //大面板先选阶数，面板只显示一部分，双指平移、缩放
+    private void selectHugeBase() {
+        String[] items = new String[HUGE_BASES.length];
+        for (int i = 0; i < HUGE_BASES.length; i++) {
+            items[i] = HUGE_BASES[i] + " x " + HUGE_BASES[i];
         }
+        new AlertDialog.Builder(MainActivity.this)
+                .setItems(items, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Intent intent = new Intent(MainActivity.this, GameActivity.class);
+                        intent.putExtra("base", HUGE_BASES[which]);
+                        startActivity(intent);
+                    }
+                })
+                .show();
     }
 }
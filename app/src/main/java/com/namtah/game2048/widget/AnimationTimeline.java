@@ -0,0 +1,202 @@
+package com.namtah.game2048.widget;
+
+import android.view.animation.Interpolator;
+
+import com.namtah.game2048.engine.Transitions;
+
+/**
+ * 一步的全部动画：“移动”，以及紧接在它后面同时开始的“生成”和“合并”，取代原来用完成回调串起来的三个Scroller。
+ * 所有轨道的时间都在开始时一次算好，进度由绘制时垂直同步的时间（{@link android.view.animation.AnimationUtils#currentAnimationTimeMillis()}）
+ * 直接算出，“生成”和“合并”不会因为等完成回调而晚一帧开始；每块瓷砖按动画增量的标志落在其中一条轨道上（{@link #trackOf(int)}）。
+ *
+ * 缓动曲线预先采样成查找表（{@link Easing}），每帧不再调用插值器。
+ * 下一步来得太快时用{@link #hurry(long, int)}把剩下的“移动”压缩到给定时间内，进度连续不跳变；
+ * {@link #cancel()}直接跳到结束状态。{@link #frameKey(long)}用于跳过与上一帧完全相同的帧。
+ *
+ * 此类不是线程安全的，交给渲染线程时用{@link #set(AnimationTimeline)}复制一份。
+ */
+final class AnimationTimeline {
+
+    static final int TRACK_MOVE = 0;        //“移动”：除新生成的瓷砖外都从起点移到终点
+    static final int TRACK_SPAWN = 1;       //“生成”：新生成的瓷砖从中心放大
+    static final int TRACK_MERGE = 2;       //“合并”：合并出的瓷砖放大一下
+    private static final int TRACKS = 3;
+
+    //与原来的三个Scroller相同，都是线性的
+    private static final Easing[] EASINGS = {Easing.LINEAR, Easing.LINEAR, Easing.LINEAR};
+
+    private final long[] mStart = new long[TRACKS];     //各轨道的开始时间
+    private final int[] mDuration = new int[TRACKS];    //各轨道的持续时间，0表示没有这条轨道
+
+    /**
+     * 开始一步的动画：“移动”之后紧接着“生成”和“合并”
+     * @param now 当前时间
+     * @param move “移动”持续时间，0表示不播放“移动”，直接开始“生成”和“合并”
+     * @param spawn “生成”持续时间
+     * @param merge “合并”持续时间，0表示没有“合并”（例如重新开始时）
+     */
+    void start(long now, int move, int spawn, int merge) {
+        set(TRACK_MOVE, now, move);
+        set(TRACK_SPAWN, now + move, spawn);
+        set(TRACK_MERGE, now + move, merge);
+    }
+
+    /**
+     * 把剩下的“移动”压缩到remaining以内，当前的进度保持不变，“生成”和“合并”跟着提前
+     * @param now 当前时间
+     * @param remaining “移动”最多还剩多长时间
+     */
+    void hurry(long now, int remaining) {
+        float fraction = fraction(TRACK_MOVE, now);
+        if (fraction < 0 || mStart[TRACK_MOVE] + mDuration[TRACK_MOVE] - now <= remaining) {
+            return;
+        }
+        //新的持续时间d满足 (1 - fraction) * d = remaining，开始时间往回推使得此刻的进度不变
+        int duration = Math.max(1, Math.round(remaining / (1 - fraction)));
+        mStart[TRACK_MOVE] = now - Math.round(fraction * duration);
+        mDuration[TRACK_MOVE] = duration;
+        long end = mStart[TRACK_MOVE] + duration;
+        mStart[TRACK_SPAWN] = end;
+        mStart[TRACK_MERGE] = end;
+    }
+
+    /**
+     * 所有动画直接跳到结束状态
+     */
+    void cancel() {
+        for (int track = 0; track < TRACKS; track++) {
+            mDuration[track] = 0;
+        }
+    }
+
+    void set(AnimationTimeline other) {
+        System.arraycopy(other.mStart, 0, mStart, 0, TRACKS);
+        System.arraycopy(other.mDuration, 0, mDuration, 0, TRACKS);
+    }
+
+    private void set(int track, long start, int duration) {
+        mStart[track] = start;
+        mDuration[track] = duration;
+    }
+
+    /**
+     * “移动”是否还在播放，此时面板不能再走下一步（要排队）
+     * @param now 当前时间
+     * @return 是否在播放
+     */
+    boolean isMoving(long now) {
+        return now < getMoveEnd();
+    }
+
+    /**
+     * “移动”结束的时间，没有“移动”时不晚于开始或取消的时间
+     * @return 时间
+     */
+    long getMoveEnd() {
+        return mStart[TRACK_MOVE] + mDuration[TRACK_MOVE];
+    }
+
+    /**
+     * 是否还有动画没有播完（包括还没开始的）
+     * @param now 当前时间
+     * @return 是否需要继续画下一帧
+     */
+    boolean isRunning(long now) {
+        for (int track = 0; track < TRACKS; track++) {
+            if (mDuration[track] > 0 && now < mStart[track] + mDuration[track]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 某条轨道在某个时刻的线性进度
+     * @param track 轨道
+     * @param now 当前时间
+     * @return 进度（0~1），还没开始时为0，已经结束或没有这条轨道时返回-1
+     */
+    float fraction(int track, long now) {
+        int duration = mDuration[track];
+        long passed = now - mStart[track];
+        if (duration == 0 || passed >= duration) {
+            return -1;
+        }
+        return passed <= 0 ? 0 : (float) passed / duration;
+    }
+
+    /**
+     * 某条轨道在某个时刻经过缓动的进度
+     * @param track 轨道
+     * @param now 当前时间
+     * @return 进度（0~1），已经结束或没有这条轨道时返回-1
+     */
+    float progress(int track, long now) {
+        float fraction = fraction(track, now);
+        return fraction < 0 ? -1 : EASINGS[track].get(fraction);
+    }
+
+    /**
+     * 瓷砖在“非移动”状态下所在的轨道（“移动”时所有没被新生成的瓷砖都在{@link #TRACK_MOVE}上）
+     * @param flags 动画增量的标志
+     * @return 轨道，不参与“生成”和“合并”时返回-1
+     */
+    static int trackOf(int flags) {
+        if ((flags & Transitions.SPAWNED) != 0) {
+            return TRACK_SPAWN;
+        }
+        if ((flags & Transitions.MERGED) != 0) {
+            return TRACK_MERGE;
+        }
+        return -1;
+    }
+
+    /**
+     * 这一帧画出来的样子的标识：各轨道的进度落在查找表的第几格。与上一帧相同时画面也相同，可以跳过
+     * @param now 当前时间
+     * @return 标识
+     */
+    long frameKey(long now) {
+        long key = 0;
+        for (int track = 0; track < TRACKS; track++) {
+            float fraction = fraction(track, now);
+            key = key << 16 | (fraction < 0 ? 0xffff : Easing.sample(fraction));
+        }
+        return key;
+    }
+
+    /**
+     * 缓动曲线的查找表，两个采样点之间线性插值
+     */
+    static final class Easing {
+
+        static final int SAMPLES = 64;
+        static final Easing LINEAR = new Easing(null);
+
+        private final float[] mTable = new float[SAMPLES + 1];
+
+        /**
+         * @param interpolator 插值器，为null时是线性的
+         */
+        Easing(Interpolator interpolator) {
+            for (int i = 0; i <= SAMPLES; i++) {
+                float t = (float) i / SAMPLES;
+                mTable[i] = interpolator == null ? t : interpolator.getInterpolation(t);
+            }
+        }
+
+        float get(float fraction) {
+            float x = fraction * SAMPLES;
+            int i = (int) x;
+            if (i >= SAMPLES) {
+                return mTable[SAMPLES];
+            }
+            return mTable[i] + (mTable[i + 1] - mTable[i]) * (x - i);
+        }
+
+        //进度落在查找表的第几格
+        static int sample(float fraction) {
+            return Math.min(SAMPLES, (int) (fraction * SAMPLES));
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.namtah.game2048.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+import com.namtah.game2048.engine.Transitions;
+
+/**
+ * 把一个{@link RenderFrame}画到画布上：背景、瓷砖和三种动画。
+ * {@link GameView}在onDraw中使用，{@link BoardSurfaceView}在渲染线程中使用，同一个对象只能在一个线程中使用。
+ */
+class BoardRenderer {
+
+    private final Paint pBg, pTile;                     //画笔对象
+    private final TileCache mTileCache;                 //瓷砖位图缓存
+    private Bitmap mBackground;                         //静态背景层（大背景和瓷砖背景）
+    private int mBackgroundNumber;                      //背景层对应的阶数
+    private final RectF tileRec = new RectF();          //瓷砖边界，绘制时复用
+    private final RectF mViewRect = new RectF();        //视口范围，用于剔除视口外的瓷砖
+    private float mSideWidth, mGap;                     //面板边距、瓷砖间距
+    private int mClearColor;                            //每帧先涂满的颜色，0表示不涂（视图本身是透明的）
+    private int mTileCount;                             //上一帧画了几块瓷砖
+
+    BoardRenderer() {
+        pBg = new Paint();
+        pBg.setAntiAlias(true);
+        pTile = new Paint();
+        pTile.setFilterBitmap(true);
+        mTileCache = new TileCache();
+    }
+
+    /**
+     * 设置每帧先涂满的颜色，SurfaceView没有透明的背景，需要涂成窗口的背景色
+     * @param color 颜色，0表示不涂
+     */
+    void setClearColor(int color) {
+        mClearColor = color;
+    }
+
+    /**
+     * 每格（瓷砖加间距）的宽度，与{@link #draw(Canvas, int, int, RenderFrame, long)}中的计算相同
+     * @param width 视图宽度
+     * @param span 显示几行几列
+     * @return 宽度（像素）
+     */
+    static float cellPitch(int width, float span) {
+        float side = width / (span * 8f);
+        float gap = width / (span * 10f);
+        return (width - side * 2 + gap) / span;
+    }
+
+    /**
+     * 面板边距
+     * @param width 视图宽度
+     * @param span 显示几行几列
+     * @return 边距（像素）
+     */
+    static float sideWidth(int width, float span) {
+        return width / (span * 8f);
+    }
+
+    /**
+     * 画一帧
+     * @param canvas 画布
+     * @param width 宽度
+     * @param height 高度
+     * @param frame 快照
+     * @param now 当前时间，与{@link android.view.animation.AnimationUtils#currentAnimationTimeMillis()}的时基相同
+     * @return 是否还有动画在播放，是则需要继续画下一帧
+     */
+    boolean draw(Canvas canvas, int width, int height, RenderFrame frame, long now) {
+        mTileCount = 0;
+        if (mClearColor != 0) {
+            canvas.drawColor(mClearColor);
+        }
+        final int number = frame.number;
+        if (number == 0 || width == 0 || height == 0) {
+            return false;
+        }
+        //大面板只显示视口中的viewSpan行列，尺寸按视口计算
+        final boolean viewport = frame.viewport;
+        final int span = frame.viewSpan;
+        mSideWidth = sideWidth(width, span);
+        mGap = width / (span * 10f);
+
+        //计算每块瓷砖的宽和高
+        final float tWidth = (width - mSideWidth * 2 - mGap * (span - 1)) / span;
+        final float tHeight = (height - mSideWidth * 2 - mGap * (span - 1)) / span;
+        mTileCache.setSize(Math.round(tWidth), Math.round(tHeight));
+        //第0行第0列瓷砖的左上角，视口不在左上角时为负
+        final float originX = mSideWidth - (tWidth + mGap) * frame.viewLeft;
+        final float originY = mSideWidth - (tHeight + mGap) * frame.viewTop;
+
+        if (viewport) {
+            //视口随时平移，背景每帧只画视口内的格子，瓷砖裁剪到面板边距以内
+            drawViewportBackground(canvas, width, height, frame, originX, originY, tWidth, tHeight);
+            mViewRect.set(mSideWidth, mSideWidth, width - mSideWidth, height - mSideWidth);
+            canvas.save();
+            canvas.clipRect(mViewRect);
+        } else {
+            //大背景和瓷砖背景只在视图大小或阶数变化时画一次
+            if (mBackground == null || mBackground.getWidth() != width || mBackground.getHeight() != height
+                    || mBackgroundNumber != number) {
+                mBackground = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mBackgroundNumber = number;
+                drawBackground(new Canvas(mBackground), width, height, number, tWidth, tHeight);
+            }
+            canvas.drawBitmap(mBackground, 0, 0, null);
+        }
+
+        //根据必要的偏移量和缩放来计算瓷砖位置并绘制瓷砖前景和数字
+        //“移动”动画的进度，-1表示没有在播放
+        final AnimationTimeline timeline = frame.timeline;
+        final float moveFraction = timeline.progress(AnimationTimeline.TRACK_MOVE, now);
+        final boolean scrolling = moveFraction >= 0;
+
+        //原地不动的瓷砖没有动画增量，直接按面板画；视口模式下只扫描视口内（包括边上露出一部分）的格子
+        int top = 0, left = 0, bottom = number, right = number;
+        if (viewport) {
+            top = (int) frame.viewTop;
+            left = (int) frame.viewLeft;
+            bottom = Math.min(number, top + span + 1);
+            right = Math.min(number, left + span + 1);
+        }
+        for (int i = top; i < bottom; i++) {
+            for (int j = left; j < right; j++) {
+                final int cell = i * number + j;
+                final int value = frame.tiles[cell];
+                if (value == 0 || frame.isCovered(cell))
+                    continue;
+                tileRec.set(originX + (tWidth + mGap) * j,
+                        originY + (tHeight + mGap) * i,
+                        originX + (tWidth + mGap) * j + tWidth,
+                        originY + (tHeight + mGap) * i + tHeight);
+                canvas.drawBitmap(mTileCache.get(value), null, tileRec, pTile);
+                mTileCount++;
+            }
+        }
+
+        //动了的瓷砖（移动、合并、新生成）遍历动画增量，条目数与动了的瓷砖数成正比
+        for (int k = 0; k < frame.count; k++) {
+            final int flags = frame.flags[k];
+            final int to = frame.to[k];
+            final int toRow = to / number, toColumn = to % number;
+            int value;
+            //先把状态分成”移动“状态和”非移动“状态（或者说固定状态），用于计算当前瓷砖的实际偏移位置以及大小
+            //”移动“状态进行”移动“动画，操作的是瓷砖旧值（”移动“前的值），从起点格子逐渐移到终点格子，新生成的瓷砖还不显示
+            //”非移动“状态：正好”合并“动画、”生成“动画、以及”静止状态“操作的都是新值，被合并掉的瓷砖不再显示
+            // ---------- ”非移动“状态 ----------
+            if (!scrolling) {
+                if ((flags & Transitions.ABSORBED) != 0)
+                    continue;
+                value = frame.tiles[to];
+                if (value == 0)
+                    continue;
+                tileRec.set(originX + (tWidth + mGap) * toColumn,
+                        originY + (tHeight + mGap) * toRow,
+                        originX + (tWidth + mGap) * toColumn + tWidth,
+                        originY + (tHeight + mGap) * toRow + tHeight);
+                //新生成的瓷砖进行“生成”动画，合并出的瓷砖进行“合并”动画
+                final int track = AnimationTimeline.trackOf(flags);
+                final float fraction = track < 0 ? -1 : timeline.progress(track, now);
+                if (track == AnimationTimeline.TRACK_MERGE && fraction >= 0) {
+                    tileRec.inset(-12 * fraction, -12 * fraction);
+                } else if (track == AnimationTimeline.TRACK_SPAWN && fraction >= 0) {
+                    tileRec.inset((1 - fraction) * tWidth / 2, (1 - fraction) * tHeight / 2);
+                }
+            // ---------- ”移动“状态 ----------
+            } else {
+                if ((flags & Transitions.SPAWNED) != 0)
+                    continue;
+                value = frame.values[k];
+                final int from = frame.from[k];
+                final float row = from / number + (toRow - from / number) * moveFraction;
+                final float column = from % number + (toColumn - from % number) * moveFraction;
+                tileRec.set(originX + (tWidth + mGap) * column,
+                        originY + (tHeight + mGap) * row,
+                        originX + (tWidth + mGap) * column + tWidth,
+                        originY + (tHeight + mGap) * row + tHeight);
+            }
+
+            //视口外的瓷砖不画
+            if (viewport && !RectF.intersects(mViewRect, tileRec))
+                continue;
+            //绘制瓷砖前景和数字，动画中的缩放只是缩放位图
+            canvas.drawBitmap(mTileCache.get(value), null, tileRec, pTile);
+            mTileCount++;
+        }
+        if (viewport) {
+            canvas.restore();
+        }
+
+        return timeline.isRunning(now);
+    }
+
+    /**
+     * 上一次{@link #draw(Canvas, int, int, RenderFrame, long)}画了几块瓷砖（不包括剔除掉的），用于帧统计
+     * @return 瓷砖数
+     */
+    int getTileCount() {
+        return mTileCount;
+    }
+
+    /**
+     * 丢弃所有位图，视图离开窗口或渲染线程结束时调用
+     */
+    void release() {
+        mTileCache.clear();
+        mBackground = null;
+    }
+
+    //绘制大背景和所有空瓷砖的背景
+    private void drawBackground(Canvas canvas, int width, int height, int number, float tWidth, float tHeight) {
+        //绘制大背景
+        pBg.setColor(0xffbbada0);
+        tileRec.set(0, 0, width, height);
+        canvas.drawRoundRect(tileRec, tWidth / 6, tHeight / 6, pBg);
+
+        //绘制瓷砖背景
+        pBg.setColor(0xffcdc1b4);
+        for (int i = 0; i < number; i++) {
+            for (int j = 0; j < number; j++) {
+                tileRec.set(mSideWidth + tWidth * j + mGap * j,
+                        mSideWidth + tHeight * i + mGap * i,
+                        mSideWidth + tWidth * (j + 1) + mGap * j,
+                        mSideWidth + tHeight * (i + 1) + mGap * i);
+                canvas.drawRoundRect(tileRec, tWidth / 6, tHeight / 6, pBg);
+            }
+        }
+    }
+
+    //视口模式下绘制大背景和视口内（包括边上露出一部分的）空瓷砖的背景
+    private void drawViewportBackground(Canvas canvas, int width, int height, RenderFrame frame,
+                                        float originX, float originY, float tWidth, float tHeight) {
+        pBg.setColor(0xffbbada0);
+        tileRec.set(0, 0, width, height);
+        canvas.drawRoundRect(tileRec, tWidth / 6, tHeight / 6, pBg);
+
+        pBg.setColor(0xffcdc1b4);
+        canvas.save();
+        canvas.clipRect(mSideWidth, mSideWidth, width - mSideWidth, height - mSideWidth);
+        int number = frame.number;
+        int top = (int) frame.viewTop, left = (int) frame.viewLeft;
+        int bottom = Math.min(number, top + frame.viewSpan + 1), right = Math.min(number, left + frame.viewSpan + 1);
+        for (int i = top; i < bottom; i++) {
+            for (int j = left; j < right; j++) {
+                tileRec.set(originX + (tWidth + mGap) * j,
+                        originY + (tHeight + mGap) * i,
+                        originX + (tWidth + mGap) * j + tWidth,
+                        originY + (tHeight + mGap) * i + tHeight);
+                canvas.drawRoundRect(tileRec, tWidth / 6, tHeight / 6, pBg);
+            }
+        }
+        canvas.restore();
+    }
+}
@@ -0,0 +1,276 @@
+package com.namtah.game2048.widget;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import com.namtah.game2048.R;
+
+/**
+ * 大面板的渲染线程：放在{@link GameView}下面、大小相同，由{@link GameView#setRenderSurface(BoardSurfaceView)}接管绘制。
+ * GameView照常处理触摸和游戏逻辑，面板或动画变化时把{@link RenderFrame}快照交过来；
+ * 渲染线程跟着{@link Choreographer}的垂直同步在自己的Surface上画，动画中很重的一帧不会卡住触摸和对话框。
+ *
+ * 快照有三个，UI线程写一个、渲染线程画一个、最新的一个在中间交换，交换只是在锁里换一下引用，两边都不用等对方。
+ * {@link Choreographer}需要API 16。
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class BoardSurfaceView extends SurfaceView implements SurfaceHolder.Callback {
+
+    private static final String TAG = "BoardSurfaceView";
+
+    private final Object mExchangeLock = new Object();
+    private RenderFrame mWriting = new RenderFrame();   //UI线程正在写的快照
+    private RenderFrame mLatest = new RenderFrame();    //最新交上来的快照
+    private boolean mHasLatest;                         //mLatest是否还没被渲染线程取走
+    private RenderThread mThread;
+    private volatile FrameStats mStats;                 //帧统计，由GameView设置，在渲染线程中记录
+
+    public BoardSurfaceView(Context context) {
+        this(context, null);
+    }
+
+    public BoardSurfaceView(Context context, @Nullable AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public BoardSurfaceView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        getHolder().addCallback(this);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        //与GameView相同，取宽高中较小的作为边长
+        int width = getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec);
+        int height = getDefaultSize(getSuggestedMinimumHeight(), heightMeasureSpec);
+        int size = Math.min(width, height);
+        setMeasuredDimension(size, size);
+    }
+
+    /**
+     * 取得UI线程可以写的快照，写完后调用{@link #commitFrame()}。只在UI线程调用
+     * @return 快照
+     */
+    RenderFrame beginFrame() {
+        return mWriting;
+    }
+
+    /**
+     * 交出写好的快照，渲染线程在下一次垂直同步时画它。只在UI线程调用
+     */
+    void commitFrame() {
+        synchronized (mExchangeLock) {
+            RenderFrame frame = mLatest;
+            mLatest = mWriting;
+            mWriting = frame;
+            mHasLatest = true;
+        }
+        if (mThread != null) {
+            mThread.requestFrame();
+        }
+    }
+
+    /**
+     * 设置帧统计，渲染线程画的每一帧都记在里面
+     * @param stats 帧统计，为null时不记录
+     */
+    void setFrameStats(FrameStats stats) {
+        mStats = stats;
+    }
+
+    //渲染线程取走最新的快照，没有新的时返回null
+    private RenderFrame takeLatest(RenderFrame drawing) {
+        synchronized (mExchangeLock) {
+            if (!mHasLatest) {
+                return null;
+            }
+            RenderFrame frame = mLatest;
+            mLatest = drawing;
+            mHasLatest = false;
+            return frame;
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mThread = new RenderThread(getHolder(), ContextCompat.getColor(getContext(), R.color.colorMainBg));
+        mThread.start();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mThread.shutdown();
+        mThread = null;
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        if (mThread != null) {
+            mThread.setSurface(true, 0, 0);
+        }
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        if (mThread != null) {
+            mThread.setSurface(true, width, height);
+            mThread.requestFrame();
+        }
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        //返回之后就不能再画了，setSurface()在锁里等正在画的一帧画完
+        if (mThread != null) {
+            mThread.setSurface(false, 0, 0);
+        }
+    }
+
+    /**
+     * 渲染线程：有新快照或者动画还没播完时，每次垂直同步画一帧，否则不占用CPU。
+     * 没有新快照、且各动画的进度都还在查找表的同一格里时（例如高刷新率的屏幕上），画出来与上一帧相同，跳过这一帧
+     */
+    private class RenderThread extends HandlerThread implements Choreographer.FrameCallback {
+
+        private final SurfaceHolder mHolder;
+        private final BoardRenderer mRenderer = new BoardRenderer();     //只在渲染线程中使用
+        private final Object mSurfaceLock = new Object();
+        private boolean mHasSurface;                    //以下由mSurfaceLock保护
+        private int mWidth, mHeight;
+        private Handler mHandler;
+        private RenderFrame mDrawing = new RenderFrame();   //正在画的快照，只在渲染线程中使用
+        private boolean mFrameScheduled;                    //是否已经等着下一次垂直同步，只在渲染线程中使用
+        private long mLastKey = -1;                         //上一帧的AnimationTimeline.frameKey()，-1表示必须重画
+        private final Runnable mInvalidate = new Runnable() {
+            @Override
+            public void run() {
+                mLastKey = -1;
+            }
+        };
+        private final Runnable mScheduleFrame = new Runnable() {
+            @Override
+            public void run() {
+                if (!mFrameScheduled) {
+                    mFrameScheduled = true;
+                    Choreographer.getInstance().postFrameCallback(RenderThread.this);
+                }
+            }
+        };
+
+        RenderThread(SurfaceHolder holder, int clearColor) {
+            super(TAG);
+            mHolder = holder;
+            mRenderer.setClearColor(clearColor);
+        }
+
+        @Override
+        public synchronized void start() {
+            super.start();
+            mHandler = new Handler(getLooper());
+        }
+
+        void setSurface(boolean hasSurface, int width, int height) {
+            synchronized (mSurfaceLock) {
+                mHasSurface = hasSurface;
+                if (width > 0 && height > 0) {
+                    mWidth = width;
+                    mHeight = height;
+                }
+            }
+            //新的Surface上什么都没有，下一帧必须画
+            mHandler.post(mInvalidate);
+        }
+
+        //任何线程都可以调用，在渲染线程中等下一次垂直同步
+        void requestFrame() {
+            mHandler.post(mScheduleFrame);
+        }
+
+        //在渲染线程中清理后退出，之前交上来的任务照常执行
+        void shutdown() {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Choreographer.getInstance().removeFrameCallback(RenderThread.this);
+                    mRenderer.release();
+                    quit();
+                }
+            });
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameScheduled = false;
+            RenderFrame latest = takeLatest(mDrawing);
+            if (latest != null) {
+                mDrawing = latest;
+                mLastKey = -1;
+            }
+            //垂直同步的时间与AnimationUtils.currentAnimationTimeMillis()的时基相同
+            long now = frameTimeNanos / 1000000;
+            long key = mDrawing.timeline.frameKey(now);
+            FrameStats stats = mStats;
+            if (key == mLastKey) {
+                //画面与上一帧相同：动画还没播完时等下一次垂直同步，否则停下，直到下一次requestFrame()
+                if (stats != null) {
+                    stats.onFrameSkipped(frameTimeNanos);
+                }
+                if (mDrawing.timeline.isRunning(now)) {
+                    mScheduleFrame.run();
+                }
+                return;
+            }
+            boolean animating = false;
+            synchronized (mSurfaceLock) {
+                if (!mHasSurface || mWidth == 0) {
+                    return;
+                }
+                Canvas canvas = lockCanvas();
+                if (canvas == null) {
+                    return;
+                }
+                try {
+                    long start = System.nanoTime();
+                    animating = mRenderer.draw(canvas, mWidth, mHeight, mDrawing, now);
+                    if (stats != null) {
+                        stats.onFrame(frameTimeNanos, System.nanoTime() - start, mRenderer.getTileCount(), animating);
+                    }
+                    mLastKey = key;
+                } finally {
+                    unlockCanvasAndPost(canvas);
+                }
+            }
+            if (animating) {
+                mScheduleFrame.run();
+            }
+        }
+
+        //API 23以上用硬件加速的画布
+        private Canvas lockCanvas() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                return mHolder.getSurface().lockHardwareCanvas();
+            }
+            return mHolder.lockCanvas();
+        }
+
+        private void unlockCanvasAndPost(Canvas canvas) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                mHolder.getSurface().unlockCanvasAndPost(canvas);
+            } else {
+                mHolder.unlockCanvasAndPost(canvas);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.namtah.game2048.widget;
+
+import com.namtah.game2048.engine.Histogram;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 面板绘制的帧统计：每帧画面板的耗时、画了几块瓷砖、每段动画画了几帧，以及动画中错过了几次垂直同步（掉帧）。
+ * 每帧只往固定大小的{@link Histogram}里加几个计数，不分配内存，可以一直开着。
+ *
+ * {@link #onFrame(long, long, int, boolean)}只在绘制的线程中调用（onDraw模式下是UI线程，渲染线程模式下是渲染线程），
+ * 读取和{@link #reset()}可以在任何线程。
+ */
+public final class FrameStats {
+
+    private final Histogram mDrawMicros = new Histogram();          //每帧画面板的耗时（微秒）
+    private final Histogram mTiles = new Histogram();               //每帧画了几块瓷砖
+    private final Histogram mAnimationFrames = new Histogram();     //每段动画画了几帧
+    private final AtomicLong mFrames = new AtomicLong();            //一共画了几帧
+    private final AtomicLong mMissedVsyncs = new AtomicLong();      //动画中错过了几次垂直同步
+    private volatile long mVsyncNanos = 1000000000L / 60;          //垂直同步的间隔，默认按60Hz
+
+    //以下只在绘制的线程中使用
+    private long mLastFrameNanos;           //上一帧的垂直同步时间
+    private boolean mWasAnimating;          //上一帧之后是否还有动画，是则这一帧应该紧接着下一次垂直同步
+    private int mFramesInAnimation;         //当前这段动画已经画了几帧
+
+    /**
+     * 设置屏幕刷新率，用于判断两帧之间错过了几次垂直同步
+     * @param hz 刷新率，不大于0时忽略
+     */
+    public void setRefreshRate(float hz) {
+        if (hz > 0) {
+            mVsyncNanos = (long) (1000000000L / hz);
+        }
+    }
+
+    /**
+     * 记录画出的一帧
+     * @param frameTimeNanos 这一帧的垂直同步时间
+     * @param drawNanos 画面板的耗时
+     * @param tiles 画了几块瓷砖
+     * @param animating 画完后是否还有动画（需要画下一帧）
+     */
+    void onFrame(long frameTimeNanos, long drawNanos, int tiles, boolean animating) {
+        mFrames.incrementAndGet();
+        mDrawMicros.record(drawNanos / 1000);
+        mTiles.record(tiles);
+        countMissed(frameTimeNanos);
+        if (animating || mWasAnimating) {
+            mFramesInAnimation++;
+        }
+        if (!animating && mFramesInAnimation > 0) {
+            mAnimationFrames.record(mFramesInAnimation);
+            mFramesInAnimation = 0;
+        }
+        mWasAnimating = animating;
+        mLastFrameNanos = frameTimeNanos;
+    }
+
+    /**
+     * 记录因为与上一帧相同而跳过的一帧，它是按时到来的，不算掉帧
+     * @param frameTimeNanos 这一帧的垂直同步时间
+     */
+    void onFrameSkipped(long frameTimeNanos) {
+        countMissed(frameTimeNanos);
+        mLastFrameNanos = frameTimeNanos;
+    }
+
+    //动画中两帧的间隔超过1.5个垂直同步时，中间的都算错过了；静止时不画是正常的，不算
+    private void countMissed(long frameTimeNanos) {
+        if (!mWasAnimating || mLastFrameNanos == 0) {
+            return;
+        }
+        long vsync = mVsyncNanos;
+        long interval = frameTimeNanos - mLastFrameNanos;
+        if (interval * 2 > vsync * 3) {
+            mMissedVsyncs.addAndGet((interval + vsync / 2) / vsync - 1);
+        }
+    }
+
+    public Histogram getDrawMicros() {
+        return mDrawMicros;
+    }
+
+    public Histogram getTiles() {
+        return mTiles;
+    }
+
+    public Histogram getAnimationFrames() {
+        return mAnimationFrames;
+    }
+
+    public long getFrames() {
+        return mFrames.get();
+    }
+
+    public long getMissedVsyncs() {
+        return mMissedVsyncs.get();
+    }
+
+    /**
+     * 清空所有统计
+     */
+    public void reset() {
+        mDrawMicros.reset();
+        mTiles.reset();
+        mAnimationFrames.reset();
+        mFrames.set(0);
+        mMissedVsyncs.set(0);
+    }
+
+    /**
+     * 统计摘要，每行一项，用于调试浮层和日志
+     * @return 摘要
+     */
+    public String[] summary() {
+        return new String[]{
+                String.format(Locale.US, "frames %d  jank %d", getFrames(), getMissedVsyncs()),
+                String.format(Locale.US, "draw p50 %.2fms  p99 %.2fms  max %.2fms",
+                        mDrawMicros.percentile(0.5) / 1000f, mDrawMicros.percentile(0.99) / 1000f,
+                        mDrawMicros.getMax() / 1000f),
+                String.format(Locale.US, "tiles p50 %d  max %d", mTiles.percentile(0.5), mTiles.getMax()),
+                String.format(Locale.US, "frames/anim p50 %d  max %d",
+                        mAnimationFrames.percentile(0.5), mAnimationFrames.getMax()),
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (String line : summary()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(line);
+        }
+        return builder.toString();
+    }
+}
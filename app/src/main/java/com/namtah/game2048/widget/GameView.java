@@ -4,22 +4,36 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Canvas;
 import android.graphics.Paint;
-import android.graphics.RectF;
-import android.support.annotation.NonNull;
+import android.os.Build;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.animation.AnimationUtils;
-import android.view.animation.Interpolator;
 
-import java.util.ArrayList;
-import java.util.List;
+import com.namtah.game2048.engine.ByteBoard;
+import com.namtah.game2048.engine.DataHelper;
+import com.namtah.game2048.engine.Direction;
+import com.namtah.game2048.engine.HintCache;
+import com.namtah.game2048.engine.HintEngine;
+import com.namtah.game2048.engine.Metrics;
+import com.namtah.game2048.engine.NTupleNetwork;
+import com.namtah.game2048.engine.MoveJournal;
+import com.namtah.game2048.engine.ParallelMover;
+import com.namtah.game2048.engine.Snapshot;
+import com.namtah.game2048.engine.SnapshotWriter;
+import com.namtah.game2048.engine.Successors;
+import com.namtah.game2048.engine.Transitions;
+
+import java.util.Random;
 
 /**
- * 2048游戏视图，使用{@link #load(int)}加载或创建游戏数据，使用{@link #save()}保存当前游戏数据，
- * 使用{@link #restartGame()}来进行重新游戏
+ * 2048游戏视图，使用{@link #load(Snapshot)}加载或创建游戏数据，使用{@link #save(long, long, boolean)}生成并保存存档，
+ * 使用{@link #restartGame()}来进行重新游戏。
+ * 阶数大于{@link #VIEWPORT_SPAN}的大面板只显示一个视口，双指拖动平移、捏合缩放，只绘制视口内的瓷砖。
+ * 绘制由{@link BoardRenderer}完成，设置了{@link #setRenderSurface(BoardSurfaceView)}时改在渲染线程中绘制。
+ * 每一帧的耗时和掉帧记在{@link #getFrameStats()}中，{@link #setDebugOverlay(boolean)}可以把它显示在面板上。
  *
  * 作者：Namtah Kin
  */
@@ -30,22 +44,60 @@ public class GameView extends View {
     private final int DURATION_MOVE = 180;         //“移动”动画持续时间
     private final int DURATION_MERGE = 160;        //“合并”动画持续时间
     private final int DURATION_NEW = 200;          //“生成”动画持续时间
+    private static final int QUEUE_CAPACITY = 4;   //动画期间最多积压几次滑动
+    private static final int VIEWPORT_SPAN = 16;        //大面板的视口默认显示几行几列，阶数不大于它时显示整个面板
+    private static final int VIEWPORT_MIN_SPAN = 4;     //视口最少显示几行几列
+    private static final int VIEWPORT_MAX_SPAN = 32;    //视口最多显示几行几列
+    private static final int OVERLAY_INTERVAL = 500;    //调试浮层的刷新间隔（毫秒）
     private int mTouchSlop;
 
-    private DataHelper mDataHelper;                     //实际数据辅助类对象
-    private Paint pBg, pText;                           //画笔对象
-    private RectF tileRec;                              //瓷砖边界，绘制时复用
-    private float mSideWidth, mGap;                     //面板边距、瓷砖间距
-    private Scroller mMoveScorller;                     //“移动”动画辅助
-    private Scroller mNewScroller;                      //“生成”动画辅助
-    private Scroller mMergeScroller;                    //“合并”动画辅助
-    private Direction mDirection;                       //移动方向，同样用于动画
+    private DataHelper mDataHelper;                     //实际数据辅助类对象，滑动时可能换成后台算好的另一个
+    private Random mRandom;                             //生成新瓷砖用的随机数，所有DataHelper共用
+    private Successors mSuccessors;                     //后台预先算好的四个方向的结果，第一次用到时创建
+    private ParallelMover mParallelMover;               //大面板的并行滑动，只在API 21以上的多核设备上创建
+    private BoardRenderer mRenderer;                    //在onDraw中绘制
+    private RenderFrame mFrame;                         //onDraw使用的快照
+    private BoardSurfaceView mSurface;                  //渲染线程模式下接管绘制，为null时在onDraw中绘制
+    private long mBoardVersion;                         //面板每变化一次加1，快照据此判断是否需要复制面板
+    private AnimationTimeline mTimeline;                //“移动”、“生成”、“合并”动画
+    private Direction mDirection;                       //移动方向
     //private List<Point> mNewPoints;                     //保存每次需要新生成砖块的位置，因为第一次和重新游戏需要生成两个砖块，故用列表
     private OnStepListener mOnStepListener = null;      //每一步监听
-
-    enum Direction {
-        LEFT, RIGHT, TOP, BOTTOM
-    }
+    private HintEngine mHintEngine;                     //提示引擎，第一次请求提示时创建
+    private NTupleNetwork mHintNetwork;                 //提示引擎叶子节点的估值网络，没有设置时为null
+    private HintCache mHintCache;                       //提示结果的缓存，没有设置时为null
+    private MoveJournal mJournal;                       //走法日志，用于撤销和重做，没有设置时为null
+    private SnapshotWriter mSnapshotWriter;             //在后台写入存档，没有设置时为null
+    private Snapshot mLastSnapshot;                     //最近一次保存的存档，撤销和重做时沿用其中的最高分和是否赢过
+    private Metrics mMetrics;                           //引擎的性能指标，没有设置时为null
+    private Metrics.Counter mMoveCounter;               //换上后台算好的结果时自己计入实际走的步数
+    private final Direction[] mQueue = new Direction[QUEUE_CAPACITY];  //“移动”动画期间的滑动，按顺序走（环形队列）
+    private int mQueueHead, mQueueSize;
+    private boolean mSwiped;                            //这次触摸是否已经识别出滑动，每次触摸只算一次
+    private float mViewLeft, mViewTop;                  //视口左上角的位置（格），显示整个面板时为0
+    private int mViewSpan = VIEWPORT_SPAN;              //视口显示几行几列
+    private boolean mMultiTouch;                        //这次触摸是否用过两根手指，此时只平移、缩放，不识别滑动
+    private float mPinchX, mPinchY;                     //上一次两指的中点
+    private float mPinchDistance;                       //两指开始捏合时的距离
+    private int mPinchSpan;                             //两指开始捏合时视口显示几行几列
+    private final FrameStats mFrameStats = new FrameStats();   //帧统计，两种绘制模式共用
+    private boolean mDebugOverlay;                      //是否显示调试浮层
+    private Paint pDebug;                               //调试浮层的画笔，第一次显示时创建
+    private String[] mOverlayLines;                     //调试浮层的文字，定时刷新，不在每帧格式化
+    private final Runnable mRefreshOverlay = new Runnable() {
+        @Override
+        public void run() {
+            mOverlayLines = mFrameStats.summary();
+            invalidate();
+            postDelayed(this, OVERLAY_INTERVAL);
+        }
+    };
+    private final Runnable mDrainQueue = new Runnable() {
+        @Override
+        public void run() {
+            drainQueue();
+        }
+    };
 
     /**
      * 每走一步的监听回调
@@ -58,6 +110,12 @@ public class GameView extends View {
          */
         void onStepOver(int stepScore, int stepMax);
 
+        /**
+         * 撤销或重做后回调，此时新的分数已经存档
+         * @param score 撤销或重做后的分数
+         */
+        void onScoreRestored(long score);
+
     }
 
     public void setOnStepListener(OnStepListener l) {
@@ -79,55 +137,63 @@ public class GameView extends View {
 
     private void init() {
         mTouchSlop = ViewConfiguration.get(getContext()).getScaledTouchSlop();
-        mDataHelper = new DataHelper();
+        mRandom = new Random();
+        mDataHelper = new DataHelper(mRandom);
 
-        pBg = new Paint();
-        pBg.setAntiAlias(true);
-        pText = new Paint();
-        pText.setAntiAlias(true);
-        pText.setTextAlign(Paint.Align.CENTER);
-
-        tileRec = new RectF();
+        mRenderer = new BoardRenderer();
+        mFrame = new RenderFrame();
 
         //mNewPoints = new ArrayList<>();
-        mNewScroller = new Scroller();
-        mMoveScorller = new Scroller();
-        mMergeScroller = new Scroller();
-        mMoveScorller.setOnCompleteListener(new Scroller.OnCompleteListener() {
-            @Override
-            public void onComplete() {
-                //移动动画完毕开启增加新砖块动画
-                mNewScroller.startScroll(DURATION_NEW);
-                mMergeScroller.startScroll(DURATION_MERGE);
-            }
-        });
-
+        mTimeline = new AnimationTimeline();
     }
 
     /**
      * 重新开始游戏。
      */
     public void restartGame() {
+        cancelHint();
+        clearQueue();
         mDataHelper.clear();
 
 //        mNewPoints.clear();
 //        mNewPoints.add(mDataHelper.createNewTile());
 //        mNewPoints.add(mDataHelper.createNewTile());
         mDataHelper.putTwoNewTile();
-        save();
-        mMoveScorller.abortAnimation();
-        mNewScroller.startScroll(DURATION_NEW);
-        invalidate();
+        if (mJournal != null) {
+            mJournal.reset(mDataHelper, 0);
+        }
+        mTimeline.start(now(), 0, DURATION_NEW, 0);
+        removeCallbacks(mDrainQueue);
+        prepareSuccessors();
+        onBoardChanged();
     }
 
     /**
-     * 根据阶数从文件加载数据，如果没有数据会自动调用{@link #restartGame()}重新开始游戏,
-     * 你应该先调用此方法开始游戏，然后重新游戏则restartGame()方法。
+     * 从存档加载面板，存档中没有瓷砖时会自动调用{@link #restartGame()}重新开始游戏
+     * @param snapshot 存档，见{@link #snapshot(long, long, boolean)}
+     */
+    public void load(Snapshot snapshot) {
+        int base = snapshot.getNumber();
+        ByteBoard board = snapshot.getBoard();
+        mDataHelper.setTiles(new int[base][base]);
+        mDataHelper.setByteBoard(board);
+        onNumberChanged();
+        if (board.countEmpty() == base * base) {
+            restartGame();
+        } else {
+            clearQueue();
+            prepareSuccessors();
+            onBoardChanged();
+        }
+    }
+
+    /**
+     * 根据阶数加载旧版本保存在SharedPreferences中的数据，如果没有数据会自动调用{@link #restartGame()}重新开始游戏。
+     * 新的存档使用{@link #snapshot(long, long, boolean)}和{@link #load(Snapshot)}。
      * @param base 阶数
      */
     public void load(int base) {
         int[][] real = new int[base][base];
-        mDataHelper.setTiles(real);
         SharedPreferences sp = getContext().getSharedPreferences("base-" + base, Context.MODE_PRIVATE);
         boolean allZero = true;
         for (int i = 0; i < base; i++) {
@@ -135,29 +201,165 @@ public class GameView extends View {
                 real[i][j] = sp.getInt(i + "-" + j, 0);
                 if (real[i][j] != 0) {
                     allZero = false;
-                    break;
                 }
             }
         }
+        mDataHelper.setTiles(real);
+        onNumberChanged();
         if (allZero) {
             restartGame();
         } else {
-            invalidate();
+            clearQueue();
+            prepareSuccessors();
+            onBoardChanged();
         }
     }
 
+    //阶数可能变了：大面板准备好并行滑动，视口回到左上角
+    private void onNumberChanged() {
+        int number = mDataHelper.getNumber();
+        if (mParallelMover == null && number >= ParallelMover.MIN_NUMBER
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP        //ForkJoinPool需要API 21
+                && Runtime.getRuntime().availableProcessors() > 1) {            //单核时拆分只有开销
+            mParallelMover = new ParallelMover(Runtime.getRuntime().availableProcessors());
+        }
+        mDataHelper.setParallelMover(mParallelMover);
+        if (mSuccessors != null) {
+            mSuccessors.setParallelMover(mParallelMover);
+        }
+        mViewLeft = mViewTop = 0;
+        mViewSpan = VIEWPORT_SPAN;
+    }
+
     /**
-     * 保存当前数据
+     * 生成当前面板的存档，可以交给{@link SnapshotWriter}在后台写入
+     * @param score 分数
+     * @param bestScore 最高分
+     * @param win 是否已经赢过
+     * @return 存档
      */
-    public void save() {
-        SharedPreferences sp = getContext().getSharedPreferences("base-" + mDataHelper.number, Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = sp.edit();
-        for (int i = 0; i < mDataHelper.number; i++) {
-            for (int j = 0; j < mDataHelper.number; j++) {
-                editor.putInt(i + "-" + j, mDataHelper.get(i, j));
-            }
+    public Snapshot snapshot(long score, long bestScore, boolean win) {
+        return new Snapshot(mDataHelper.toByteBoard(), score, bestScore, win);
+    }
+
+    /**
+     * 设置写入存档的{@link SnapshotWriter}，{@link #save(long, long, boolean)}、撤销和重做都通过它保存
+     * @param writer 存档写入器，为null时只生成存档不写入
+     */
+    public void setSnapshotWriter(SnapshotWriter writer) {
+        mSnapshotWriter = writer;
+    }
+
+    /**
+     * 生成当前面板的存档并交给{@link SnapshotWriter}在后台写入
+     * @param score 分数
+     * @param bestScore 最高分
+     * @param win 是否已经赢过
+     * @return 存档
+     */
+    public Snapshot save(long score, long bestScore, boolean win) {
+        mLastSnapshot = snapshot(score, bestScore, win);
+        if (mSnapshotWriter != null) {
+            mSnapshotWriter.submit(mLastSnapshot);
         }
-        editor.apply();
+        return mLastSnapshot;
+    }
+
+    /**
+     * 最近一次{@link #save(long, long, boolean)}（包括撤销和重做时）保存的存档
+     * @return 存档，还没有保存过时返回null
+     */
+    public Snapshot getLastSnapshot() {
+        return mLastSnapshot;
+    }
+
+    /**
+     * 设置走法日志，之后每走一步都会记录下来，可以{@link #undo()}和{@link #redo()}。
+     * 日志的当前面板与正在显示的不同时（例如日志是旧的），以当前面板作为新的开始。
+     * @param journal 走法日志，为null时不再记录
+     * @param score 当前分数
+     */
+    public void setJournal(MoveJournal journal, long score) {
+        mJournal = journal;
+        if (journal != null && !mDataHelper.toByteBoard().equals(journal.getBoard())) {
+            journal.reset(mDataHelper, score);
+        }
+    }
+
+    /**
+     * 撤销一步，分数恢复为{@link MoveJournal#getScore()}并存档，之后回调{@link OnStepListener#onScoreRestored(long)}
+     * @return 是否撤销了，没有设置日志或已经是第一步时返回false
+     */
+    public boolean undo() {
+        if (mJournal == null || !mJournal.undo(mDataHelper)) {
+            return false;
+        }
+        onJumped();
+        restoreScore();
+        return true;
+    }
+
+    /**
+     * 重做一步，分数恢复为{@link MoveJournal#getScore()}并存档，之后回调{@link OnStepListener#onScoreRestored(long)}
+     * @return 是否重做了，没有可以重做的步时返回false
+     */
+    public boolean redo() {
+        if (mJournal == null || !mJournal.redo(mDataHelper)) {
+            return false;
+        }
+        onJumped();
+        restoreScore();
+        return true;
+    }
+
+    //撤销、重做后按日志中的分数存档，最高分和是否赢过沿用上一次的存档
+    private void restoreScore() {
+        long score = mJournal.getScore();
+        long bestScore = score;
+        boolean win = false;
+        if (mLastSnapshot != null) {
+            bestScore = Math.max(score, mLastSnapshot.getBestScore());
+            win = mLastSnapshot.isWin();
+        }
+        save(score, bestScore, win);
+        if (mOnStepListener != null) {
+            mOnStepListener.onScoreRestored(score);
+        }
+    }
+
+    /**
+     * 快进：一次走完一串步数（例如重放或自动走），不播放动画，也不逐步回调，
+     * 最后只回调一次{@link OnStepListener#onStepOver(int, int)}，分数为所有步之和。
+     * 参数见{@link DataHelper#fastForward(Direction[], int[], int[], int, int[])}
+     * @param directions 每步的方向
+     * @param spawnCells 每步之后新瓷砖的位置（row * number + column）
+     * @param spawnValues 每步之后新瓷砖的数值
+     * @param count 步数
+     * @return 实际走了几步
+     */
+    public int fastForward(Direction[] directions, int[] spawnCells, int[] spawnValues, int count) {
+        int[] stepScores = mJournal != null ? new int[count] : null;
+        int steps = mDataHelper.fastForward(directions, spawnCells, spawnValues, count, stepScores);
+        if (steps == 0) {
+            return 0;
+        }
+        if (mJournal != null) {
+            mJournal.recordAll(directions, spawnCells, spawnValues, stepScores, steps);
+        }
+        onJumped();
+        if (mOnStepListener != null) {
+            mOnStepListener.onStepOver(mDataHelper.getStepScore(), mDataHelper.getStepMax());
+        }
+        return steps;
+    }
+
+    //撤销、重做或快进后面板直接跳到新的局面，不播放动画
+    private void onJumped() {
+        cancelHint();
+        clearQueue();
+        mTimeline.cancel();
+        prepareSuccessors();
+        onBoardChanged();
     }
 
     /**
@@ -168,31 +370,218 @@ public class GameView extends View {
         return mDataHelper.checkAccessibility();
     }
 
-    //分发滑动状态
-    private void dispatchScroll() {
-        boolean hasChanged = false;
-        if (mDirection == Direction.LEFT) {
-            hasChanged = mDataHelper.goLeft();
-        } else if (mDirection == Direction.RIGHT) {
-            hasChanged = mDataHelper.goRight();
-        } else if (mDirection == Direction.TOP) {
-            hasChanged = mDataHelper.goTop();
-        } else if (mDirection == Direction.BOTTOM) {
-            hasChanged = mDataHelper.goBottom();
+    /**
+     * 设置提示搜索用的n元组网络（只用于4阶面板），为null时用默认的估值函数
+     * @param network 网络
+     */
+    public void setHintNetwork(NTupleNetwork network) {
+        mHintNetwork = network;
+        if (mHintEngine != null) {
+            mHintEngine.setNetwork(network);
+        }
+    }
+
+    /**
+     * 设置提示结果的缓存（只用于4阶面板），命中时不再搜索
+     * @param cache 缓存，为null时不使用缓存
+     */
+    public void setHintCache(HintCache cache) {
+        mHintCache = cache;
+        if (mHintEngine != null) {
+            mHintEngine.setCache(cache);
+        }
+    }
+
+    /**
+     * 在后台搜索当前局面的最佳方向，结果在UI线程回调；走出下一步后未完成的搜索会被取消且不再回调。
+     * 目前只支持4阶面板。
+     * @param budgetMillis 时间预算（毫秒）
+     * @param l 结果回调
+     * @return 是否开始了搜索，当前面板不支持时返回false
+     */
+    public boolean requestHint(long budgetMillis, final HintEngine.OnHintListener l) {
+        if (!mDataHelper.isPacked()) {
+            return false;
+        }
+        if (mHintEngine == null) {
+            mHintEngine = new HintEngine();
+            mHintEngine.setNetwork(mHintNetwork);
+            mHintEngine.setCache(mHintCache);
+        }
+        mHintEngine.search(mDataHelper.getPackedBoard(), budgetMillis, new HintEngine.OnHintListener() {
+            @Override
+            public void onHint(final HintEngine.Hint hint) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        l.onHint(hint);
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 取消未完成的提示搜索
+     */
+    public void cancelHint() {
+        if (mHintEngine != null) {
+            mHintEngine.cancel();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mHintEngine != null) {
+            mHintEngine.shutdown();
+            mHintEngine = null;
+        }
+        if (mSuccessors != null) {
+            mSuccessors.shutdown();
+            mSuccessors = null;
+        }
+        if (mParallelMover != null) {
+            mDataHelper.setParallelMover(null);
+            mParallelMover.shutdown();
+            mParallelMover = null;
+        }
+        clearQueue();
+        removeCallbacks(mRefreshOverlay);
+        mRenderer.release();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        //判断掉帧要知道垂直同步的间隔，Display只能在API 17以上从视图取得，否则按60Hz
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && getDisplay() != null) {
+            mFrameStats.setRefreshRate(getDisplay().getRefreshRate());
+        }
+        if (mDebugOverlay) {
+            removeCallbacks(mRefreshOverlay);
+            post(mRefreshOverlay);
+        }
+    }
+
+    //面板变化后在后台算好下一步四个方向的结果，动画播放期间就能完成
+    private void prepareSuccessors() {
+        if (mSuccessors == null) {
+            mSuccessors = new Successors(mRandom);
+            mSuccessors.setParallelMover(mParallelMover);
+            mSuccessors.setMetrics(mMetrics);
+        }
+        mSuccessors.submit(mDataHelper);
+    }
+
+    //识别出一次滑动：没有动画时立即走，否则排队；队列满了就直接走掉最早的一步（不播放“移动”动画），不丢掉任何一步
+    private void onSwipe(Direction direction) {
+        long now = now();
+        if (mQueueSize == 0 && !mTimeline.isMoving(now)) {
+            mDirection = direction;
+            dispatchScroll(DURATION_MOVE);
+            return;
+        }
+        if (mQueueSize == QUEUE_CAPACITY) {
+            mDirection = pollQueue();
+            dispatchScroll(0);
+        }
+        mQueue[(mQueueHead + mQueueSize) % QUEUE_CAPACITY] = direction;
+        ++mQueueSize;
+        //正在播放的“移动”剩下的部分也按积压的步数加快，与drainQueue()中下一步的时长相同
+        mTimeline.hurry(now, DURATION_MOVE / (1 + mQueueSize));
+        scheduleDrain();
+        requestRender();
+    }
+
+    //走积压的滑动，还有积压时“移动”动画按积压的步数加快，不能走的方向直接跳过
+    private void drainQueue() {
+        long now = now();
+        while (mQueueSize > 0 && !mTimeline.isMoving(now)) {
+            mDirection = pollQueue();
+            if (dispatchScroll(DURATION_MOVE / (1 + mQueueSize))) {
+                break;
+            }
+        }
+        if (mQueueSize > 0) {
+            scheduleDrain();
+        }
+    }
+
+    //“移动”动画结束时走积压的滑动
+    private void scheduleDrain() {
+        removeCallbacks(mDrainQueue);
+        postDelayed(mDrainQueue, Math.max(0, mTimeline.getMoveEnd() - now()));
+    }
+
+    //动画的时间：绘制和处理输入时是这一帧垂直同步的时间，否则是SystemClock.uptimeMillis()
+    private static long now() {
+        return AnimationUtils.currentAnimationTimeMillis();
+    }
+
+    private Direction pollQueue() {
+        Direction direction = mQueue[mQueueHead];
+        mQueue[mQueueHead] = null;
+        mQueueHead = (mQueueHead + 1) % QUEUE_CAPACITY;
+        --mQueueSize;
+        return direction;
+    }
+
+    //面板被直接替换，积压的滑动不再有意义
+    private void clearQueue() {
+        removeCallbacks(mDrainQueue);
+        while (mQueueSize > 0) {
+            pollQueue();
+        }
+    }
+
+    /**
+     * 分发滑动状态
+     * @param duration “移动”动画持续时间，0表示不播放“移动”动画，直接开始“生成”和“合并”动画
+     * @return 是否走了
+     */
+    private boolean dispatchScroll(int duration) {
+        //不会改变面板的方向直接忽略，不必试着去走
+        if (!mDataHelper.canMove(mDirection)) {
+            return false;
+        }
+        //后台已经算好时直接换上，旧的交还复用；没算好就自己滑动
+        DataHelper next = mSuccessors == null ? null : mSuccessors.take(mDirection);
+        boolean hasChanged;
+        if (next != null) {
+            mSuccessors.recycle(mDataHelper);
+            mDataHelper = next;
+            hasChanged = true;
+            if (mMoveCounter != null) {
+                mMoveCounter.increment();
+            }
+        } else {
+            hasChanged = mDataHelper.go(mDirection);
         }
 
         if (hasChanged) {
+            //局面已经变化，之前的提示没有意义了
+            cancelHint();
             //增加新砖块并记录
 //            mNewPoints.clear();
 //            mNewPoints.add(mDataHelper.createNewTile());
             mDataHelper.putOneNewTile();
+            if (mJournal != null) {
+                mJournal.record(mDirection, mDataHelper);
+            }
+            prepareSuccessors();
             //要先启动动画，因为下面的回调可能会取消动画
-            mMoveScorller.startScroll(DURATION_MOVE);
+            mTimeline.start(now(), duration, DURATION_NEW, DURATION_MERGE);
+            if (mQueueSize > 0) {
+                scheduleDrain();
+            }
+            onBoardChanged();
             if (mOnStepListener != null) {
-                mOnStepListener.onStepOver(mDataHelper.stepScore, mDataHelper.stepMax);
+                mOnStepListener.onStepOver(mDataHelper.getStepScore(), mDataHelper.getStepMax());
             }
-            invalidate();
         }
+        return hasChanged;
     }
 
     @Override
@@ -211,32 +600,38 @@ public class GameView extends View {
     float startX, startY;
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        switch (event.getAction()) {
+        switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
                 startX = event.getX();
                 startY = event.getY();
+                mSwiped = false;
+                mMultiTouch = false;
                 break;
-            case MotionEvent.ACTION_MOVE:
-
+            case MotionEvent.ACTION_POINTER_DOWN:
+                //大面板上第二根手指按下：这次触摸只平移、缩放视口
+                if (isViewport() && event.getPointerCount() == 2) {
+                    mMultiTouch = true;
+                    startPinch(event);
+                }
+                break;
+            case MotionEvent.ACTION_POINTER_UP:
+                //只剩一根手指时不再平移，也不再识别滑动，直到全部抬起
                 break;
+            case MotionEvent.ACTION_MOVE:
             case MotionEvent.ACTION_UP:
-                final float offsetX = event.getX() - startX;
-                final float offsetY = event.getY() - startY;
-                if (Math.abs(offsetX) > mTouchSlop || Math.abs(offsetY) > mTouchSlop) {
-                    if (Math.abs(offsetX) > Math.abs(offsetY)) {
-                        if (offsetX > 0) {
-                            mDirection = Direction.RIGHT;
-                        } else {
-                            mDirection = Direction.LEFT;
-                        }
-                    } else {
-                        if (offsetY > 0) {
-                            mDirection = Direction.BOTTOM;
-                        } else {
-                            mDirection = Direction.TOP;
-                        }
+                if (mMultiTouch) {
+                    if (event.getActionMasked() == MotionEvent.ACTION_MOVE && event.getPointerCount() >= 2) {
+                        pinch(event);
+                    }
+                    break;
+                }
+                //超过mTouchSlop立即识别，不必等到抬起手指；很快的滑动可能没有MOVE事件，在UP时识别
+                if (!mSwiped) {
+                    Direction direction = detectSwipe(event.getX() - startX, event.getY() - startY);
+                    if (direction != null) {
+                        mSwiped = true;
+                        onSwipe(direction);
                     }
-                    dispatchScroll();
                 }
                 break;
             default: break;
@@ -244,601 +639,175 @@ public class GameView extends View {
         return true;
     }
 
-    @Override
-    protected void onDraw(Canvas canvas) {
-        super.onDraw(canvas);
-        mSideWidth = getWidth() / (mDataHelper.number * 8f);
-        mGap = getWidth() / (mDataHelper.number * 10f);
-
-        //计算每块瓷砖的宽和高
-        final float tWidth = (getWidth() - mSideWidth * 2 - mGap * (mDataHelper.number - 1)) / mDataHelper.number;
-        final float tHeight = (getHeight() - mSideWidth * 2 - mGap * (mDataHelper.number - 1)) / mDataHelper.number;
-
-        //绘制大背景
-        pBg.setColor(0xffbbada0);
-        tileRec.set(0, 0, getWidth(), getHeight());
-        canvas.drawRoundRect(tileRec, tWidth / 6, tHeight / 6, pBg);
-
-
-        //绘制瓷砖背景
-        for (int i = 0; i < mDataHelper.number; i++) {
-            for (int j = 0; j < mDataHelper.number; j++) {
-                tileRec.set(mSideWidth + tWidth * j + mGap * j,
-                        mSideWidth + tHeight * i + mGap * i,
-                        mSideWidth + tWidth * (j + 1) + mGap * j,
-                        mSideWidth + tHeight * (i + 1) + mGap * i);
-                pBg.setColor(0xffcdc1b4);
-                canvas.drawRoundRect(tileRec, tWidth / 6, tHeight / 6, pBg);
-            }
-        }
-
-        //根据必要的偏移量和缩放来计算瓷砖位置并绘制瓷砖前景和数字
-        //是否正在进行某种动画
-        boolean scrolling = mMoveScorller.computeScrollOffset();
-        boolean creating = mNewScroller.computeScrollOffset();
-        boolean merging = mMergeScroller.computeScrollOffset();
-//        Log.d(TAG, "onDraw: " + mNewScroller.getTimeFraction());
-
-        for (int i = 0; i < mDataHelper.number; i++) {
-            for (int j = 0; j < mDataHelper.number; j++) {
-                int value;
-                //先把状态分成”移动“状态和”非移动“状态（或者说固定状态），用于计算当前瓷砖的实际偏移位置以及大小
-                //”移动“状态进行”移动“动画，操作的是瓷砖临时值（”移动“前的值），因为瓷砖值是即时修改的，而”移动“动画是缓慢进行的，需要旧值和位移值来进行动画
-                //”非移动“状态：正好”合并“动画、”生成“动画、以及”静止状态“操作的都是新值，所以可以归为一个状态
-                // ---------- ”非移动“状态 ----------
-                if (!scrolling) {
-                    value = mDataHelper.get(i, j);
-                    if (value == 0)
-                        continue;
-                    tileRec.set(mSideWidth + tWidth * j + mGap * j,
-                            mSideWidth + tHeight * i + mGap * i,
-                            mSideWidth + tWidth * (j + 1) + mGap * j,
-                            mSideWidth + tHeight * (i + 1) + mGap * i);
-                    if (merging) {                                          //是否正在进行合并动画
-                        if (mDataHelper.needMerge(i, j)) {                            //当前位置是否需要合并
-//                            float y;
-//                            if (mMergeScroller.getTimeFraction() < 0.5) {
-//                                y = -2 * mMergeScroller.getTimeFraction() + 1;
-//                            } else {
-//                                y = 2 * mMergeScroller.getTimeFraction() - 1;
-//                            }
-                            tileRec.inset(-12 * mMergeScroller.getTimeFraction(), -12 * mMergeScroller.getTimeFraction());
-                        }
-                    }
-                    if (creating) {                                         //是否正在进行生成动画
-                        for (int k = 0; k < mDataHelper.getNewTiles().size(); k++) {       //当前位置的瓷砖是否是新生成的
-                            if (mDataHelper.getNewTiles().get(k).x == i && mDataHelper.getNewTiles().get(k).y == j) {
-                                tileRec.inset((1 - mNewScroller.getTimeFraction()) * tWidth / 2, (1 - mNewScroller.getTimeFraction()) * tHeight / 2);
-                            }
-                        }
-                    }
-                // ---------- ”移动“状态 ----------
-                } else {
-                    value = mDataHelper.getTemp(i, j);
-                    if (value == 0)
-                        continue;
-                    if (mDirection == Direction.LEFT || mDirection == Direction.RIGHT) {
-                        tileRec.set(mSideWidth + tWidth * j + mGap * j + mDataHelper.getOffset(i, j) * (tWidth + mGap) * mMoveScorller.getTimeFraction(),
-                                mSideWidth + tHeight * i + mGap * i,
-                                mSideWidth + tWidth * (j + 1) + mGap * j + mDataHelper.getOffset(i, j) * (tWidth + mGap) * mMoveScorller.getTimeFraction(),
-                                mSideWidth + tHeight * (i + 1) + mGap * i);
-                    } else if (mDirection == Direction.TOP || mDirection == Direction.BOTTOM) {
-                        tileRec.set(mSideWidth + tWidth * j + mGap * j,
-                                mSideWidth + tHeight * i + mGap * i + mDataHelper.getOffset(i, j) * (tHeight + mGap) * mMoveScorller.getTimeFraction(),
-                                mSideWidth + tWidth * (j + 1) + mGap * j,
-                                mSideWidth + tHeight * (i + 1) + mGap * i + mDataHelper.getOffset(i, j) * (tHeight + mGap) * mMoveScorller.getTimeFraction());
-                    }
-
-                }
-
-                //绘制瓷砖前景色
-                pBg.setColor(calcTileColor(value));
-                canvas.drawRoundRect(tileRec, tWidth / 6, tHeight / 6, pBg);
-
-                //绘制瓷砖数字
-                pText.setColor(calcTextColor(value));
-                float min = tileRec.width() < tileRec.height() ? tileRec.width() : tileRec.height();
-                pText.setTextSize(min * 2.1f / (getFigures(value) + 3) );    //文字按大小与位数成反比例函数缩放
-                final Paint.FontMetrics fontMetrics = pText.getFontMetrics();
-                final float top = fontMetrics.top;
-                final float bottom = fontMetrics.bottom;
-                //baseLinY = (-top + bottom) / 2 - bottom + base
-                final int baseLineY = (int) (tileRec.centerY() - top / 2 - bottom / 2);
-
-                canvas.drawText(String.valueOf(value), tileRec.centerX(), baseLineY, pText);
-            }
-        }
-
-        if (scrolling || creating || merging) {
-            invalidate();
-        }
+    //是否只显示一个视口
+    private boolean isViewport() {
+        return mDataHelper.getNumber() > VIEWPORT_SPAN;
     }
 
+    private void startPinch(MotionEvent event) {
+        mPinchX = (event.getX(0) + event.getX(1)) / 2;
+        mPinchY = (event.getY(0) + event.getY(1)) / 2;
+        mPinchDistance = Math.max(1, (float) Math.hypot(event.getX(0) - event.getX(1), event.getY(0) - event.getY(1)));
+        mPinchSpan = mViewSpan;
+    }
 
+    //两指拖动平移视口，捏合按整数行列缩放（瓷砖位图缓存只在行列数变化时重画），两指中点下的格子保持不动
+    private void pinch(MotionEvent event) {
+        float x = (event.getX(0) + event.getX(1)) / 2;
+        float y = (event.getY(0) + event.getY(1)) / 2;
+        float distance = Math.max(1, (float) Math.hypot(event.getX(0) - event.getX(1), event.getY(0) - event.getY(1)));
+        float pitch = BoardRenderer.cellPitch(getWidth(), mViewSpan);
+        mViewLeft -= (x - mPinchX) / pitch;
+        mViewTop -= (y - mPinchY) / pitch;
+        mPinchX = x;
+        mPinchY = y;
+
+        int span = Math.round(mPinchSpan * mPinchDistance / distance);
+        span = Math.max(VIEWPORT_MIN_SPAN, Math.min(Math.min(VIEWPORT_MAX_SPAN, mDataHelper.getNumber()), span));
+        if (span != mViewSpan) {
+            float side = BoardRenderer.sideWidth(getWidth(), mViewSpan);
+            float column = mViewLeft + (x - side) / pitch, row = mViewTop + (y - side) / pitch;
+            mViewSpan = span;
+            pitch = BoardRenderer.cellPitch(getWidth(), span);
+            side = BoardRenderer.sideWidth(getWidth(), span);
+            mViewLeft = column - (x - side) / pitch;
+            mViewTop = row - (y - side) / pitch;
+        }
+        int max = mDataHelper.getNumber() - mViewSpan;
+        mViewLeft = Math.max(0, Math.min(max, mViewLeft));
+        mViewTop = Math.max(0, Math.min(max, mViewTop));
+        requestRender();
+    }
 
-    /**
-     * class Scroller
-     * 系统自带Scroller的简化版，参见{@link android.widget.Scroller}，
-     * 动画辅助类，通过{@link #startScroll(int)}启动动画，然后通过{@link #computeScrollOffset()}计算并返回动画是否结束，
-     * 最后可以调用{@link #getTimeFraction()}来获取当前动画进行的时刻。
-     */
-    public static class Scroller {
-
-        private int mDuration;                                  //动画持续时间
-        private long mStartTime;                                //动画开始时间
-        private boolean mFinished = true;                       //动画是否结束
-        private float mTimeFraction;                            //动画的时刻
-        private OnCompleteListener mOnCompleteListener = null;  //动画完成监听
-        private Interpolator mInterpolator = null;              //插值器
-
-        interface OnCompleteListener {
-            void onComplete();
-        }
-
-        Scroller() {
-
-        }
-
-        Scroller(Interpolator i) {
-            this.mInterpolator = i;
-        }
-
-        void setInterpolator(Interpolator i) {
-            this.mInterpolator = i;
+    //根据位移判断方向，还没超过mTouchSlop时返回null
+    private Direction detectSwipe(float offsetX, float offsetY) {
+        if (Math.abs(offsetX) <= mTouchSlop && Math.abs(offsetY) <= mTouchSlop) {
+            return null;
         }
-
-        /**
-         * 动画开始
-         * @param duration 动画持续时间
-         */
-        public void startScroll(int duration) {
-            mFinished = false;
-            mDuration = duration;
-            mStartTime = AnimationUtils.currentAnimationTimeMillis();
+        if (Math.abs(offsetX) > Math.abs(offsetY)) {
+            return offsetX > 0 ? Direction.RIGHT : Direction.LEFT;
+        } else {
+            return offsetY > 0 ? Direction.BOTTOM : Direction.TOP;
         }
+    }
 
-        /**
-         * 计算当前动画的时刻（0~1），并返回动画是否结束
-         * @return 动画是否结束
-         */
-        public boolean computeScrollOffset() {
-            if (mFinished) {
-                return false;
-            }
-            int timePassed = (int) (AnimationUtils.currentAnimationTimeMillis() - mStartTime);
-            if (timePassed < mDuration) {
-                mTimeFraction = (float)timePassed / mDuration;
-                if (mInterpolator != null) {
-                    mTimeFraction = mInterpolator.getInterpolation(mTimeFraction);
-                }
-            } else {
-                mFinished = true;
-                if (mOnCompleteListener != null) {      //因为动画完成时最后一个时刻不一定达到1.0f，所以需要一个监听来表示动画确实完成了
-                    mOnCompleteListener.onComplete();
-                }
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mSurface == null) {         //否则由渲染线程绘制，这里只画调试浮层
+            fillFrame(mFrame);
+            long now = now();
+            long start = System.nanoTime();
+            boolean animating = mRenderer.draw(canvas, getWidth(), getHeight(), mFrame, now);
+            mFrameStats.onFrame(now * 1000000, System.nanoTime() - start, mRenderer.getTileCount(), animating);
+            if (animating) {
+                invalidate();
             }
-            return true;
         }
-
-        /**
-         * 获取当前动画的时刻
-         * @return 当前动画所处的时刻
-         */
-        public float getTimeFraction() {
-            return mTimeFraction;
+        if (mDebugOverlay && mOverlayLines != null) {
+            drawDebugOverlay(canvas);
         }
+    }
 
-        /**
-         * 取消动画
-         */
-        public void abortAnimation() {
-            mFinished = true;
+    //在左上角画帧统计
+    private void drawDebugOverlay(Canvas canvas) {
+        float textSize = Math.max(getWidth() / 32f, 10);
+        pDebug.setTextSize(textSize);
+        float width = 0;
+        for (String line : mOverlayLines) {
+            width = Math.max(width, pDebug.measureText(line));
         }
-
-        /**
-         * 设置动画完成监听
-         * @param l 动画完成监听
-         */
-        public void setOnCompleteListener(OnCompleteListener l) {
-            this.mOnCompleteListener = l;
+        pDebug.setColor(0x99000000);
+        canvas.drawRect(0, 0, width + textSize, textSize * (mOverlayLines.length + 0.5f), pDebug);
+        pDebug.setColor(0xffffffff);
+        for (int i = 0; i < mOverlayLines.length; i++) {
+            canvas.drawText(mOverlayLines[i], textSize / 2, textSize * (i + 1), pDebug);
         }
     }
 
-
-
     /**
-     * class DataHelper
-     *
-     * 包括每块瓷砖的数据以及一些用来动画辅助的数据，
-     * 用来进行滑动及生成新瓷砖的方法。
+     * 设置引擎的性能指标，之后实际走的每一步、生成新瓷砖等都记在里面，后台预先计算的后继不记，见{@link DataHelper#setMetrics(Metrics)}
+     * @param metrics 性能指标，为null时不记录
      */
-    public static class DataHelper {
-
-        int number;                                 //阶数、底数（base）
-        private int mTiles[][], mTemp[][];          //瓷砖数组（滑动后即时修改） 和 临时数组（保存旧值用于“移动”动画，因为动画不能即时变化）
-        private int mOffsets[][];                   //位移数组（用于“移动”动画，要“移动”多少个单位）
-        private boolean mMerged[][];                //合并数组（用于“合并”动画，该位置是否需要进行合并动画）
-        private int stepScore, stepMax;             //每走一步的成绩，瓷砖最大值（用来判断是否达到了2048）
-        private List<Point> mNewPoints;             //保存每次需要新生成瓷砖的位置，因为第一次游戏和重新游戏需要生成两个砖块，故用列表
-
-        public DataHelper() {
-            mNewPoints = new ArrayList<>();
-            int[][] defaultTiles = {{0, 0, 0, 0}, {0, 0, 0, 0}, {0, 0, 0, 0}, {0, 0, 0, 0}};
-            setTiles(defaultTiles);
-        }
-
-        /**
-         * 设置所有瓷砖数值，接受一个二维数组，且二维数组的行数与列数必须相同
-         * @param tiles 瓷砖数值二维数组
-         */
-        public void setTiles(@NonNull int[][] tiles) {
-            for (int i = 0; i < tiles.length; i++) {
-                if (tiles[i].length != tiles.length) {
-                    throw new IllegalArgumentException("The number of rows and of columns must be the same. You have "
-                            + tiles.length + " rows but in Row[" + i + "] you set " + tiles[i].length + " columns!");
-                }
-            }
-            this.mTiles = tiles;
-            this.number = mTiles.length;
-            this.mOffsets = new int[number][number];
-            this.mTemp = new int[number][number];
-            this.mMerged = new boolean[number][number];
-        }
-
-        /**
-         * 获取当前所有瓷砖数值
-         * @return 当前瓷砖数值数组
-         */
-        public int[][] getTiles() {
-            return mTiles;
-        }
-
-
-        /**
-         * 获取某个位置的瓷砖数值
-         * @param row 行数
-         * @param column 列数
-         * @return 该位置的瓷砖数值
-         */
-        public int get(int row, int column) {
-            return mTiles[row][column];
-        }
-
-        /**
-         * 获取某个位置的旧瓷砖数值，应在滑动后调用
-         * @param row 行数
-         * @param column 列数
-         * @return 该位置的旧值
-         */
-        public int getTemp(int row, int column) {
-            return mTemp[row][column];
-        }
-
-        /**
-         * 获取某个位置的瓷砖位移值，应在滑动后调用
-         * @param row 行数
-         * @param column 列数
-         * @return 该位置的旧值
-         */
-        public int getOffset(int row, int column) {
-            return mOffsets[row][column];
-        }
-
-        /**
-         * 获取某个位置是否需要进行合并动画，应在滑动后调用
-         * @param row 行数
-         * @param column 列数
-         * @return 该位置是否需要进行合并动画
-         */
-        public boolean needMerge(int row, int column) {
-            return mMerged[row][column];
-        }
-
-        /**
-         * 清空瓷砖数值数组
-         */
-        public void clear() {
-            for (int i = 0; i < number; i++) {
-                for (int j = 0; j < number; j++) {
-                    mTiles[i][j] = 0;
-                    mTemp[i][j] = 0;
-                    mOffsets[i][j] = 0;
-                    mMerged[i][j] = false;
-                }
-            }
-        }
-
-        /**
-         * 检查是否可以继续走，应在每次滑动后进行检查
-         * @return 是否可以继续走
-         */
-        public boolean checkAccessibility() {
-            for (int i = 0; i < number; i++) {
-                for (int j = 0; j < number; j++) {
-                    if (mTiles[i][j] == 0) {
-                        return true;
-                    }
-                    if (j != number - 1) {
-                        if (mTiles[i][j] == mTiles[i][j + 1]) {
-                            return true;
-                        }
-                    }
-                    if (i != number - 1) {
-                        if (mTiles[i][j] == mTiles[i + 1][j]) {
-                            return true;
-                        }
-                    }
-                }
-            }
-            return false;
-        }
-
-        /**
-         * 添加一个新的瓷砖并记录位置
-         */
-        public void putOneNewTile() {
-            mNewPoints.clear();
-            mNewPoints.add(createNewTile());
-        }
-
-        /**
-         * 添加两个新的瓷砖并记录位置
-         */
-        public void putTwoNewTile() {
-            mNewPoints.clear();
-            mNewPoints.add(createNewTile());
-            mNewPoints.add(createNewTile());
+    public void setMetrics(Metrics metrics) {
+        mMetrics = metrics;
+        mMoveCounter = metrics == null ? null : metrics.counter(Metrics.MOVES);
+        mDataHelper.setMetrics(metrics);
+        if (mSuccessors != null) {
+            mSuccessors.setMetrics(metrics);
         }
+    }
 
-        /**
-         * 取得新添加的瓷砖
-         * @return 新添加的瓷砖
-         */
-        public List<Point> getNewTiles() {
-            return mNewPoints;
-        }
+    /**
+     * 帧统计：每帧画面板的耗时、瓷砖数、每段动画的帧数和掉帧数，渲染线程模式下同样记录
+     * @return 帧统计
+     */
+    public FrameStats getFrameStats() {
+        return mFrameStats;
+    }
 
-        private Point createNewTile() {
-            List<Point> l = new ArrayList<>();
-            for (int i = 0; i < number; i++) {
-                for (int j = 0; j < number; j++) {
-                    if (mTiles[i][j] == 0) {
-                        l.add(new Point(i, j));
-                    }
-                }
-            }
-            int randomP = (int)(Math.random() * l.size());
-            Point p = l.get(randomP);
-            if (Math.random() > 0.18f) {
-                mTiles[p.x][p.y] = 2;
-            } else {
-                mTiles[p.x][p.y] = 4;
+    /**
+     * 显示或隐藏调试浮层，浮层每{@link #OVERLAY_INTERVAL}毫秒刷新一次帧统计，隐藏时不占用CPU
+     * @param show 是否显示
+     */
+    public void setDebugOverlay(boolean show) {
+        if (show == mDebugOverlay) {
+            return;
+        }
+        mDebugOverlay = show;
+        removeCallbacks(mRefreshOverlay);
+        if (show) {
+            if (pDebug == null) {
+                pDebug = new Paint();
+                pDebug.setAntiAlias(true);
             }
-            return p;
+            mRefreshOverlay.run();
+        } else {
+            mOverlayLines = null;
+            invalidate();
         }
+    }
 
-        //移动之前需要进行初始化
-        private void initBeforeGo() {
-            for (int i = 0; i < number; i++) {
-                for (int j = 0; j < number; j++) {
-                    mTemp[i][j] = mTiles[i][j];
-                    mOffsets[i][j] = 0;
-                    mMerged[i][j] = false;
-                }
-            }
-        }
+    public boolean isDebugOverlay() {
+        return mDebugOverlay;
+    }
 
-        /**
-         * 向左走，改变了数据返回true，未改变则返回false
-         * @return 瓷砖数组是否发生变化
-         */
-        public boolean goLeft() {
-            initBeforeGo();
-            boolean hasChanged = false;
-            stepMax = stepScore = 0;
-            int temp = 0;
-            for (int i = 0; i < number; i++) {
-                int position = 0;    //辅助游标
-                if (stepMax < mTiles[i][position]) stepMax = mTiles[i][0];     //由于第一个数没进入循环，需要专门判断一次
-                for (int j = 1; j < number; j++) {
-                    if (mTiles[i][j] == 0)
-                        continue;
-                    //else
-                    if (mTiles[i][position] == 0) {                     // [p:0, j:2, 2, 4] -> [p:2, j:0, 2, 4]
-                        mTiles[i][position] = mTiles[i][j];
-                        mTiles[i][j] = 0;
-                        mOffsets[i][j] = position - j;
-                        hasChanged = true;
-                        temp = mTiles[i][position];
-                    } else {    // mTitle[i][position] != 0
-                        if (mTiles[i][position] == mTiles[i][j]) {      // [p:2, 0, j:2, 4] -> [4, p:0, j:0, 4]
-                            mTiles[i][position] += mTiles[i][j];
-                            mTiles[i][j] = 0;
-                            mOffsets[i][j] = position - j;
-                            stepScore += mTiles[i][position];
-                            hasChanged = true;
-                            temp = mTiles[i][position];
-                            mMerged[i][position] = true;
-                            ++position;
-                        } else {                                        // [p:2, j:4, 8, 16] -> [2, p:j:4, 8, 16] or
-                            ++position;                                 // [p:2, 0, j:4, 16] -> [2, p:4, j:0, 16]
-                            if (position < j) {
-                                mTiles[i][position] = mTiles[i][j];
-                                mTiles[i][j] = 0;
-                                hasChanged = true;
-                            }
-                            mOffsets[i][j] = position - j;
-                            temp = mTiles[i][position];
-                        }
-                    }
-                    if (stepMax < temp) {
-                        stepMax = temp;
-                    }
-                }
-            }
-            return hasChanged;
+    /**
+     * 交给渲染线程绘制（用于大面板），之后onDraw不再绘制，面板或动画变化时把快照交给surface。
+     * surface应与本视图大小、位置相同，放在本视图下面；需要API 16
+     * @param surface 渲染线程的Surface，为null时恢复在onDraw中绘制
+     */
+    public void setRenderSurface(BoardSurfaceView surface) {
+        if (mSurface != null) {
+            mSurface.setFrameStats(null);
         }
-
-        /**
-         * 向右走，改变了数据返回true，未改变则返回false
-         * @return 瓷砖数组是否发生变化
-         */
-        public boolean goRight() {
-            initBeforeGo();
-            boolean hasChanged = false;
-            stepMax = stepScore = 0;
-            int temp = 0;
-            for (int i = 0; i < number; i++) {
-                int position = number - 1;
-                if (stepMax < mTiles[i][position]) stepMax = mTiles[i][position];
-                for (int j = position - 1; j >= 0; j--) {
-                    if (mTiles[i][j] == 0)
-                        continue;
-                    if (mTiles[i][position] == 0) {
-                        mTiles[i][position] = mTiles[i][j];
-                        mTiles[i][j] = 0;
-                        mOffsets[i][j] = position - j;
-                        hasChanged = true;
-                        temp = mTiles[i][position];
-                    } else {
-                        if (mTiles[i][position] == mTiles[i][j]) {
-                            mTiles[i][position] += mTiles[i][j];
-                            mTiles[i][j] = 0;
-                            mOffsets[i][j] = position - j;
-                            stepScore += mTiles[i][position];
-                            hasChanged = true;
-                            temp = mTiles[i][position];
-                            mMerged[i][position] = true;
-                            --position;
-                        } else {
-                            --position;
-                            if (position > j) {
-                                mTiles[i][position] = mTiles[i][j];
-                                mTiles[i][j] = 0;
-                                hasChanged = true;
-                            }
-                            mOffsets[i][j] = position - j;
-                            temp = mTiles[i][position];
-                        }
-                    }
-                    if (stepMax < temp) {
-                        stepMax = temp;
-                    }
-                }
-            }
-            return hasChanged;
+        mSurface = surface;
+        if (surface != null) {
+            surface.setFrameStats(mFrameStats);
         }
+        requestRender();
+    }
 
-        /**
-         * 向上走，改变了数据返回true，未改变则返回false
-         * @return 瓷砖数组是否发生变化
-         */
-        public boolean goTop() {
-            initBeforeGo();
-            boolean hasChanged = false;
-            stepMax = stepScore = 0;
-            int temp = 0;
-            for (int i = 0; i < number; i++) {
-                int position = 0;
-                if (stepMax < mTiles[position][i]) stepMax = mTiles[position][i];
-                for (int j = 1; j < number; j++) {
-                    if (mTiles[j][i] == 0)
-                        continue;
-                    if (mTiles[position][i] == 0) {
-                        mTiles[position][i] = mTiles[j][i];
-                        mTiles[j][i] = 0;
-                        mOffsets[j][i] = position - j;
-                        hasChanged = true;
-                        temp = mTiles[position][i];
-                    } else {
-                        if (mTiles[position][i] == mTiles[j][i]) {
-                            mTiles[position][i] += mTiles[j][i];
-                            mTiles[j][i] = 0;
-                            mOffsets[j][i] = position - j;
-                            stepScore += mTiles[position][i];
-                            hasChanged = true;
-                            temp = mTiles[position][i];
-                            mMerged[position][i] = true;
-                            ++position;
-                        } else {
-                            ++position;
-                            if (position < j) {
-                                mTiles[position][i] = mTiles[j][i];
-                                mTiles[j][i] = 0;
-                                hasChanged = true;
-                            }
-                            mOffsets[j][i] = position - j;
-                            temp = mTiles[position][i];
-                        }
-                    }
-                    if (stepMax < temp) {
-                        stepMax = temp;
-                    }
-                }
-            }
-            return hasChanged;
-        }
+    private void onBoardChanged() {
+        ++mBoardVersion;
+        requestRender();
+    }
 
-        /**
-         * 向下走，改变了数据返回true，未改变则返回false
-         * @return 瓷砖数组是否发生变化
-         */
-        public boolean goBottom() {
-            initBeforeGo();
-            boolean hasChanged = false;
-            stepMax = stepScore = 0;
-            int temp = 0;
-            for (int i = 0; i < number; i++) {
-                int position = number - 1;
-                if (stepMax < mTiles[position][i]) stepMax = mTiles[position][i];
-                for (int j = position - 1; j >= 0; j--) {
-                    if (mTiles[j][i] == 0)
-                        continue;
-                    if (mTiles[position][i] == 0) {
-                        mTiles[position][i] = mTiles[j][i];
-                        mTiles[j][i] = 0;
-                        mOffsets[j][i] = position - j;
-                        hasChanged = true;
-                        temp = mTiles[i][j];
-                    } else {
-                        if (mTiles[position][i] == mTiles[j][i]) {
-                            mTiles[position][i] += mTiles[j][i];
-                            mTiles[j][i] = 0;
-                            mOffsets[j][i] = position - j;
-                            stepScore += mTiles[position][i];
-                            hasChanged = true;
-                            temp = mTiles[position][i];
-                            mMerged[position][i] = true;
-                            --position;
-                        } else {
-                            --position;
-                            if (position > j) {
-                                mTiles[position][i] = mTiles[j][i];
-                                mTiles[j][i] = 0;
-                                hasChanged = true;
-                            }
-                            mOffsets[j][i] = position - j;
-                            temp = mTiles[position][i];
-                        }
-                    }
-                    if (stepMax < temp) {
-                        stepMax = temp;
-                    }
-                }
-            }
-            return hasChanged;
+    //面板、视口或动画变化后重画：在onDraw中绘制时invalidate()，否则把新的快照交给渲染线程
+    private void requestRender() {
+        if (mSurface == null) {
+            invalidate();
+            return;
         }
+        fillFrame(mSurface.beginFrame());
+        mSurface.commitFrame();
+    }
 
-    } // DataHelper
-
-
-    //用于辅助生成新的瓷砖，见addNewTile()
-    static class Point {
-        int x, y;
-        Point(int x, int y) {
-            this.x = x;
-            this.y = y;
-        }
+    //把当前的面板、视口和动画写进快照
+    private void fillFrame(RenderFrame frame) {
+        frame.setBoard(mDataHelper, mBoardVersion);
+        frame.setViewport(isViewport(), mViewLeft, mViewTop, mViewSpan);
+        frame.timeline.set(mTimeline);
     }
 
     //用于计算某个瓷砖数值对应的前景颜色
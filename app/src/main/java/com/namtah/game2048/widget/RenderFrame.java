@@ -0,0 +1,96 @@
+package com.namtah.game2048.widget;
+
+import com.namtah.game2048.engine.DataHelper;
+import com.namtah.game2048.engine.Transitions;
+
+import java.util.Arrays;
+
+/**
+ * 一帧要画的内容的快照：面板、动画增量、视口和动画时间线，交给{@link BoardRenderer}绘制。
+ * 动画的进度由绘制时的时间算出，所以同一个快照可以画动画中的每一帧，只有面板或动画变化时才需要生成新的快照。
+ *
+ * 渲染线程模式下UI线程写一个快照的同时渲染线程在画另一个，见{@link BoardSurfaceView}。
+ * 面板没有变化时（例如只是平移视口）按版本号跳过面板的复制。
+ *
+ * 动画增量只有动了的瓷砖，原地不动的瓷砖从tiles中画：复制时给每个增量的终点格子打上本次的标记，
+ * 没有标记的非空格子就是原地不动的瓷砖，见{@link #isCovered(int)}。
+ */
+final class RenderFrame {
+
+    int number;                         //阶数，0表示还没有面板
+    int[] tiles = new int[0];           //瓷砖数值，下标为row * number + column
+    int[] from = new int[0], to = new int[0], values = new int[0], flags = new int[0];     //动画增量，见Transitions
+    int count;                          //动画增量的个数
+    private int[] mCoverMarks = new int[0];     //每格最后一次作为增量终点时的标记，下标同tiles
+    private int mCoverMark;                     //本次复制的标记，每次复制加1，不必清空mCoverMarks
+    long boardVersion = -1;             //面板的版本号，相同时不必再复制
+
+    boolean viewport;                   //是否只显示视口
+    float viewLeft, viewTop;            //视口左上角的位置（格）
+    int viewSpan;                       //显示几行几列
+
+    final AnimationTimeline timeline = new AnimationTimeline();      //动画时间线的副本
+
+    /**
+     * 复制面板和动画增量
+     * @param helper 面板
+     * @param version 面板的版本号，与上次复制时相同则什么也不做
+     */
+    void setBoard(DataHelper helper, long version) {
+        if (version == boardVersion) {
+            return;
+        }
+        boardVersion = version;
+        number = helper.getNumber();
+        if (tiles.length != number * number) {
+            tiles = new int[number * number];
+            mCoverMarks = new int[number * number];
+        }
+        for (int i = 0; i < number; i++) {
+            System.arraycopy(helper.getTiles()[i], 0, tiles, i * number, number);
+        }
+        Transitions transitions = helper.getTransitions();
+        count = transitions.size();
+        if (from.length < count) {
+            int capacity = Math.max(count, from.length * 2);
+            from = new int[capacity];
+            to = new int[capacity];
+            values = new int[capacity];
+            flags = new int[capacity];
+        }
+        if (++mCoverMark == 0) {            //标记用完一轮，从头开始
+            Arrays.fill(mCoverMarks, 0);
+            mCoverMark = 1;
+        }
+        for (int k = 0; k < count; k++) {
+            from[k] = transitions.getFrom(k);
+            to[k] = transitions.getTo(k);
+            values[k] = transitions.getValue(k);
+            flags[k] = transitions.getFlags(k);
+            mCoverMarks[to[k]] = mCoverMark;
+        }
+    }
+
+    /**
+     * 某格是否是某个动画增量的终点，是则由增量去画，否则格子里的瓷砖原地不动
+     * @param cell 格子，row * number + column
+     * @return 是否是增量的终点
+     */
+    boolean isCovered(int cell) {
+        return mCoverMarks[cell] == mCoverMark;
+    }
+
+    /**
+     * 设置视口
+     * @param viewport 是否只显示视口，为false时显示整个面板，其余参数无效
+     * @param left 视口左上角的列
+     * @param top 视口左上角的行
+     * @param span 显示几行几列
+     */
+    void setViewport(boolean viewport, float left, float top, int span) {
+        this.viewport = viewport;
+        viewLeft = viewport ? left : 0;
+        viewTop = viewport ? top : 0;
+        viewSpan = viewport ? span : number;
+    }
+}
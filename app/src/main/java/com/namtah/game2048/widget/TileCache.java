@@ -0,0 +1,83 @@
+package com.namtah.game2048.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+import java.util.Arrays;
+
+/**
+ * 瓷砖位图缓存：每种数值的瓷砖（圆角背景和数字）只在第一次用到时画一次，
+ * 之后每一帧只需要把位图画到目标位置，缩放动画也只是缩放位图。
+ * 瓷砖大小变化时（视图大小或阶数改变）所有位图作废重画。
+ */
+class TileCache {
+
+    private final Bitmap[] mBitmaps = new Bitmap[32];   //下标为数值的指数
+    private final Paint pBg, pText;
+    private final RectF mRect = new RectF();
+    private int mWidth, mHeight;                        //瓷砖大小（像素）
+
+    TileCache() {
+        pBg = new Paint();
+        pBg.setAntiAlias(true);
+        pText = new Paint();
+        pText.setAntiAlias(true);
+        pText.setTextAlign(Paint.Align.CENTER);
+    }
+
+    /**
+     * 设置瓷砖大小，与之前不同时清空缓存
+     * @param width 宽度
+     * @param height 高度
+     */
+    void setSize(int width, int height) {
+        if (width == mWidth && height == mHeight) {
+            return;
+        }
+        clear();
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * 获取某个数值的瓷砖位图
+     * @param value 瓷砖数值，必须是2的幂
+     * @return 位图
+     */
+    Bitmap get(int value) {
+        int exponent = Integer.numberOfTrailingZeros(value);
+        Bitmap bitmap = mBitmaps[exponent];
+        if (bitmap == null) {
+            bitmap = render(value);
+            mBitmaps[exponent] = bitmap;
+        }
+        return bitmap;
+    }
+
+    /**
+     * 丢弃所有位图。不调用recycle()，因为硬件加速时上一帧的显示列表可能还引用着它们
+     */
+    void clear() {
+        Arrays.fill(mBitmaps, null);
+    }
+
+    //与原先逐帧绘制的方式相同：圆角背景，文字按大小与位数成反比例函数缩放并垂直居中
+    private Bitmap render(int value) {
+        Bitmap bitmap = Bitmap.createBitmap(Math.max(mWidth, 1), Math.max(mHeight, 1), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        mRect.set(0, 0, mWidth, mHeight);
+        pBg.setColor(GameView.calcTileColor(value));
+        canvas.drawRoundRect(mRect, mWidth / 6f, mHeight / 6f, pBg);
+
+        pText.setColor(GameView.calcTextColor(value));
+        float min = mWidth < mHeight ? mWidth : mHeight;
+        pText.setTextSize(min * 2.1f / (GameView.getFigures(value) + 3));
+        final Paint.FontMetrics fontMetrics = pText.getFontMetrics();
+        //baseLinY = (-top + bottom) / 2 - bottom + base
+        final int baseLineY = (int) (mRect.centerY() - fontMetrics.top / 2 - fontMetrics.bottom / 2);
+        canvas.drawText(String.valueOf(value), mRect.centerX(), baseLineY, pText);
+        return bitmap;
+    }
+}
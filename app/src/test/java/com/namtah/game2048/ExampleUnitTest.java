@@ -1,11 +1,11 @@
 package com.namtah.game2048;
 
 //import com.namtah.game2048.widget.GameView;
+import com.namtah.game2048.engine.DataHelper;
+import com.namtah.game2048.engine.Transitions;
 
 import org.junit.Test;
 
-//import java.util.Arrays;
-
 import static org.junit.Assert.*;
 
 /**
@@ -25,32 +25,26 @@ public class ExampleUnitTest {
 //        System.out.println(re);
 //    }
 
-//    @Test
-//    public void test_grid() {
-//        GameView.DataHelper dataHelper = new GameView.DataHelper();
-//
-//        int t[][] = {   {2, 0, 2, 4},
-//                        {0, 4, 2, 4},
-//                        {4, 0, 2, 8},
-//                        {0, 0, 2, 0}};
-//        dataHelper.setTiles(t);
-//
-//        long t1 = System.currentTimeMillis();
-//        dataHelper.goTop();
-//        long t2 = System.currentTimeMillis();
-//
-//        System.out.println(Arrays.toString(t[0]));
-//        System.out.println(Arrays.toString(t[1]));
-//        System.out.println(Arrays.toString(t[2]));
-//        System.out.println(Arrays.toString(t[3]));
-//
-//        for (int i = 0; i < 4; i++) {
-//            System.out.print("[");
-//            for (int j = 0; j < 4; j++) {
-//                System.out.print(dataHelper.getOffset(i, j) + " ");
-//            }
-//            System.out.println("]");
-//        }
-//        System.out.println("in " + (t2 - t1) + "ms");
-//    }
+    @Test
+    public void test_grid() {
+        DataHelper dataHelper = new DataHelper();
+
+        int t[][] = {   {2, 0, 2, 4},
+                        {0, 4, 2, 4},
+                        {4, 0, 2, 8},
+                        {0, 0, 2, 0}};
+        dataHelper.setTiles(t);
+
+        assertTrue(dataHelper.goTop());
+
+        Transitions transitions = dataHelper.getTransitions();
+        int[][] tiles = dataHelper.getTiles();                  //4阶面板存为位棋盘，读取时才展开
+        assertArrayEquals(new int[]{2, 4, 4, 8}, tiles[0]);
+        assertArrayEquals(new int[]{4, 0, 4, 8}, tiles[1]);
+        assertArrayEquals(new int[]{0, 0, 0, 0}, tiles[2]);
+        assertArrayEquals(new int[]{0, 0, 0, 0}, tiles[3]);
+        assertEquals(16, dataHelper.getStepScore());
+        assertEquals(8, dataHelper.getStepMax());
+        assertEquals(9, transitions.size());                    //只有动了的瓷砖有条目，第0列顶上的2原地不动
+    }
 }
\ No newline at end of file
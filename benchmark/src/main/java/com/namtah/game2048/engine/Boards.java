@@ -0,0 +1,54 @@
+package com.namtah.game2048.engine;
+
+import java.util.Random;
+
+/**
+ * 性能测试用的面板，由固定的随机种子生成，每次运行都完全相同。
+ * JMH生成的测试类在子包generated中，要读取{@link Fill}参数，所以这里必须是public的
+ */
+public final class Boards {
+
+    static final long SEED = 2048;
+
+    /**
+     * 面板的拥挤程度
+     */
+    public enum Fill {
+        SPARSE(0.2f),       //开局
+        MID(0.5f),          //中局
+        FULL(0.9f);         //接近结束，但至少保留一个空格
+
+        final float ratio;
+
+        Fill(float ratio) {
+            this.ratio = ratio;
+        }
+    }
+
+    private Boards() {
+    }
+
+    /**
+     * 生成一个面板，4阶面板的瓷砖不超过1024，保证走位棋盘的路径
+     * @param size 阶数
+     * @param fill 拥挤程度
+     * @return 瓷砖数值数组
+     */
+    static int[][] generate(int size, Fill fill) {
+        Random random = new Random(SEED * 31 + size * 7 + fill.ordinal());
+        int maxExponent = size == 4 ? 10 : 12;
+        int cells = size * size;
+        int count = Math.min(Math.round(cells * fill.ratio), cells - 1);
+        int[][] tiles = new int[size][size];
+        for (int placed = 0; placed < count; ) {
+            int p = random.nextInt(cells);
+            if (tiles[p / size][p % size] == 0) {
+                //小的数值出现得更多，接近真实的局面
+                int exponent = 1 + Math.min(random.nextInt(maxExponent), random.nextInt(maxExponent));
+                tiles[p / size][p % size] = 1 << exponent;
+                placed++;
+            }
+        }
+        return tiles;
+    }
+}
@@ -0,0 +1,78 @@
+package com.namtah.game2048.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DataHelper}四个方向滑动的性能。
+ *
+ * 滑动会修改面板，所以每次调用前先用{@link DataHelper#setByteBoard(ByteBoard)}恢复初始局面。
+ * 只通过公开的方法设置面板，不直接写{@link DataHelper#getTiles()}返回的数组，DataHelper内部怎么存面板、怎么维护统计都不影响测试；
+ * {@link #restore()}只做恢复，用来从其它结果中扣除这部分开销。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveBenchmark {
+
+    @Param({"4", "5", "16"})
+    int size;
+
+    @Param({"SPARSE", "MID", "FULL"})
+    Boards.Fill fill;
+
+    private DataHelper mDataHelper;
+    private ByteBoard mInitial;
+
+    @Setup
+    public void setUp() {
+        mInitial = ByteBoard.fromTiles(Boards.generate(size, fill));
+        mDataHelper = new DataHelper();
+        mDataHelper.setTiles(new int[size][size]);
+        mDataHelper.setByteBoard(mInitial);
+    }
+
+    @Benchmark
+    public DataHelper restore() {
+        mDataHelper.setByteBoard(mInitial);
+        return mDataHelper;
+    }
+
+    @Benchmark
+    public boolean goLeft() {
+        mDataHelper.setByteBoard(mInitial);
+        return mDataHelper.goLeft();
+    }
+
+    @Benchmark
+    public boolean goRight() {
+        mDataHelper.setByteBoard(mInitial);
+        return mDataHelper.goRight();
+    }
+
+    @Benchmark
+    public boolean goTop() {
+        mDataHelper.setByteBoard(mInitial);
+        return mDataHelper.goTop();
+    }
+
+    @Benchmark
+    public boolean goBottom() {
+        mDataHelper.setByteBoard(mInitial);
+        return mDataHelper.goBottom();
+    }
+}
@@ -0,0 +1,67 @@
+package com.namtah.game2048.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 生成新瓷砖和检查能否继续走的性能。
+ *
+ * 生成会填掉一个空格，所以每次调用前先用{@link DataHelper#setByteBoard(ByteBoard)}恢复初始局面，
+ * 与{@link MoveBenchmark#restore()}比较可以扣除恢复的开销。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpawnBenchmark {
+
+    @Param({"4", "5", "16"})
+    int size;
+
+    @Param({"SPARSE", "MID", "FULL"})
+    Boards.Fill fill;
+
+    private DataHelper mDataHelper;
+    private ByteBoard mInitial;
+    private final Point mPoint = new Point(0, 0);
+
+    @Setup
+    public void setUp() {
+        mInitial = ByteBoard.fromTiles(Boards.generate(size, fill));
+        mDataHelper = new DataHelper(new Random(Boards.SEED));
+        mDataHelper.setTiles(new int[size][size]);
+        mDataHelper.setByteBoard(mInitial);
+    }
+
+    @Benchmark
+    public Point createNewTile() {
+        mDataHelper.setByteBoard(mInitial);
+        return mDataHelper.createNewTile(mPoint);
+    }
+
+    @Benchmark
+    public Point putOneNewTile() {
+        mDataHelper.setByteBoard(mInitial);
+        mDataHelper.putOneNewTile();
+        return mDataHelper.getNewTile(0);
+    }
+
+    @Benchmark
+    public boolean checkAccessibility() {
+        return mDataHelper.checkAccessibility();
+    }
+}
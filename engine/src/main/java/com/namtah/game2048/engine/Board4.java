@@ -0,0 +1,348 @@
+package com.namtah.game2048.engine;
+
+/**
+ * 4阶面板的位棋盘（bitboard）实现。
+ *
+ * 整个面板用一个long保存，每块瓷砖占4位，保存的是瓷砖数值的指数（0表示空，k表示2^k），
+ * 第row行第column列位于第 (row * 4 + column) 个4位上，即每行正好是16位。
+ * 左右滑动直接查预先计算好的65536项行表，上下滑动先转置，按左右处理后再转置回来。
+ *
+ * 由于每块瓷砖只有4位，指数最大为15（32768），两个32768无法再合并，
+ * 所以只有在{@link #canPack(int[][])}返回true时才应使用此类。
+ */
+public final class Board4 {
+
+    static final int SIZE = 4;
+    static final int MAX_EXPONENT = 15;
+
+    private static final int ROW_MASK = 0xffff;
+
+    //行表，下标为滑动前的一行（16位），值为滑动后的一行
+    private static final char[] ROW_LEFT = new char[65536];
+    private static final char[] ROW_RIGHT = new char[65536];
+    //该行滑动所得的分数
+    private static final int[] SCORE_LEFT = new int[65536];
+    private static final int[] SCORE_RIGHT = new int[65536];
+    //用于动画的位移和合并信息：低8位每2位是一格的位移量（绝对值），高4位是每一格是否合并
+    private static final char[] MOTION_LEFT = new char[65536];
+    private static final char[] MOTION_RIGHT = new char[65536];
+
+    static {
+        int[] line = new int[SIZE];
+        int[] out = new int[SIZE];
+        boolean[] merged = new boolean[SIZE];
+        for (int row = 0; row < 65536; row++) {
+            for (int c = 0; c < SIZE; c++) {
+                line[c] = (row >>> (c * 4)) & 0xf;
+                out[c] = 0;
+                merged[c] = false;
+            }
+            //与DataHelper.goLeft()相同的游标算法，只是换成了指数
+            int score = 0, motion = 0;
+            int position = 0;
+            for (int c = 0; c < SIZE; c++) {
+                if (line[c] == 0)
+                    continue;
+                int target;
+                if (out[position] == 0) {                           // [p:0, c:2, 2, 4] -> [p:2, c:0, 2, 4]
+                    out[position] = line[c];
+                    target = position;
+                } else if (out[position] == line[c] && line[c] < MAX_EXPONENT) {
+                    out[position]++;                                // [p:2, 0, c:2, 4] -> [4, p:0, c:0, 4]
+                    merged[position] = true;
+                    score += 1 << out[position];
+                    target = position;
+                    ++position;
+                } else {                                            // [p:2, c:4, 8, 16] -> [2, p:c:4, 8, 16]
+                    ++position;
+                    out[position] = line[c];
+                    target = position;
+                }
+                motion |= (c - target) << (c * 2);
+            }
+            int result = 0;
+            for (int c = 0; c < SIZE; c++) {
+                result |= out[c] << (c * 4);
+                if (merged[c]) {
+                    motion |= 1 << (8 + c);
+                }
+            }
+
+            int reversedRow = reverseRow(row);
+            ROW_LEFT[row] = (char) result;
+            SCORE_LEFT[row] = score;
+            MOTION_LEFT[row] = (char) motion;
+            ROW_RIGHT[reversedRow] = (char) reverseRow(result);
+            SCORE_RIGHT[reversedRow] = score;
+            MOTION_RIGHT[reversedRow] = (char) reverseMotion(motion);
+        }
+    }
+
+    private Board4() {
+
+    }
+
+    //将一行的4格顺序反转
+    private static int reverseRow(int row) {
+        return ((row & 0xf) << 12) | ((row & 0xf0) << 4) | ((row >>> 4) & 0xf0) | ((row >>> 12) & 0xf);
+    }
+
+    //将一行的动画信息顺序反转
+    private static int reverseMotion(int motion) {
+        int result = 0;
+        for (int c = 0; c < SIZE; c++) {
+            result |= ((motion >>> (c * 2)) & 0x3) << ((SIZE - 1 - c) * 2);
+            result |= ((motion >>> (8 + c)) & 0x1) << (8 + SIZE - 1 - c);
+        }
+        return result;
+    }
+
+    /**
+     * 检查瓷砖数组能否用位棋盘表示：必须是4阶，并且每块瓷砖都是2的幂且小于32768
+     * @param tiles 瓷砖数值二维数组
+     * @return 能否表示
+     */
+    public static boolean canPack(int[][] tiles) {
+        if (tiles.length != SIZE) {
+            return false;
+        }
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                int value = tiles[i][j];
+                if (value != 0 && (value >= 1 << MAX_EXPONENT || (value & (value - 1)) != 0 || value == 1)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 将瓷砖数值数组压缩为位棋盘，调用前应先用{@link #canPack(int[][])}检查
+     * @param tiles 瓷砖数值二维数组
+     * @return 位棋盘
+     */
+    public static long pack(int[][] tiles) {
+        long board = 0;
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                int value = tiles[i][j];
+                if (value != 0) {
+                    board |= (long) Integer.numberOfTrailingZeros(value) << ((i * SIZE + j) * 4);
+                }
+            }
+        }
+        return board;
+    }
+
+    /**
+     * 将位棋盘展开到瓷砖数值数组中
+     * @param board 位棋盘
+     * @param tiles 4阶瓷砖数值二维数组
+     */
+    public static void unpack(long board, int[][] tiles) {
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                tiles[i][j] = value(get(board, i, j));
+            }
+        }
+    }
+
+    /**
+     * 获取某个位置瓷砖的指数
+     * @param board 位棋盘
+     * @param row 行数
+     * @param column 列数
+     * @return 该位置的指数，0表示空
+     */
+    public static int get(long board, int row, int column) {
+        return (int) (board >>> ((row * SIZE + column) * 4)) & 0xf;
+    }
+
+    /**
+     * 设置某个位置瓷砖的指数
+     * @param board 位棋盘
+     * @param row 行数
+     * @param column 列数
+     * @param exponent 指数，0表示空
+     * @return 设置后的位棋盘
+     */
+    public static long set(long board, int row, int column, int exponent) {
+        int shift = (row * SIZE + column) * 4;
+        return (board & ~(0xfL << shift)) | ((long) exponent << shift);
+    }
+
+    /**
+     * 将指数换算为瓷砖数值
+     * @param exponent 指数
+     * @return 瓷砖数值，指数为0时返回0
+     */
+    public static int value(int exponent) {
+        return exponent == 0 ? 0 : 1 << exponent;
+    }
+
+    /**
+     * 转置位棋盘（行列互换）
+     * @param x 位棋盘
+     * @return 转置后的位棋盘
+     */
+    public static long transpose(long x) {
+        long a1 = x & 0xF0F00F0FF0F00F0FL;
+        long a2 = x & 0x0000F0F00000F0F0L;
+        long a3 = x & 0x0F0F00000F0F0000L;
+        long a = a1 | (a2 << 12) | (a3 >>> 12);
+        long b1 = a & 0xFF00FF0000FF00FFL;
+        long b2 = a & 0x00FF00FF00000000L;
+        long b3 = a & 0x00000000FF00FF00L;
+        return b1 | (b2 >>> 24) | (b3 << 24);
+    }
+
+    /**
+     * 左右镜像（每行的4格顺序反转）
+     * @param x 位棋盘
+     * @return 镜像后的位棋盘
+     */
+    public static long mirror(long x) {
+        return ((x & 0x000F000F000F000FL) << 12) | ((x & 0x00F000F000F000F0L) << 4)
+                | ((x >>> 4) & 0x00F000F000F000F0L) | ((x >>> 12) & 0x000F000F000F000FL);
+    }
+
+    /**
+     * 上下翻转（4行的顺序反转）
+     * @param x 位棋盘
+     * @return 翻转后的位棋盘
+     */
+    public static long flip(long x) {
+        return (x << 48) | ((x & 0xFFFF0000L) << 16) | ((x >>> 16) & 0xFFFF0000L) | (x >>> 48);
+    }
+
+    //对每一行查表
+    private static long moveRows(long board, char[] table) {
+        return (long) table[(int) board & ROW_MASK]
+                | (long) table[(int) (board >>> 16) & ROW_MASK] << 16
+                | (long) table[(int) (board >>> 32) & ROW_MASK] << 32
+                | (long) table[(int) (board >>> 48) & ROW_MASK] << 48;
+    }
+
+    private static int scoreRows(long board, int[] table) {
+        return table[(int) board & ROW_MASK]
+                + table[(int) (board >>> 16) & ROW_MASK]
+                + table[(int) (board >>> 32) & ROW_MASK]
+                + table[(int) (board >>> 48) & ROW_MASK];
+    }
+
+    /**
+     * 向某个方向滑动
+     * @param board 位棋盘
+     * @param direction 方向
+     * @return 滑动后的位棋盘，与原值相等说明没有变化
+     */
+    public static long move(long board, Direction direction) {
+        switch (direction) {
+            case LEFT:
+                return moveRows(board, ROW_LEFT);
+            case RIGHT:
+                return moveRows(board, ROW_RIGHT);
+            case TOP:
+                return transpose(moveRows(transpose(board), ROW_LEFT));
+            case BOTTOM:
+                return transpose(moveRows(transpose(board), ROW_RIGHT));
+            default:
+                return board;
+        }
+    }
+
+    /**
+     * 计算向某个方向滑动所得的分数
+     * @param board 位棋盘
+     * @param direction 方向
+     * @return 分数
+     */
+    public static int score(long board, Direction direction) {
+        switch (direction) {
+            case LEFT:
+                return scoreRows(board, SCORE_LEFT);
+            case RIGHT:
+                return scoreRows(board, SCORE_RIGHT);
+            case TOP:
+                return scoreRows(transpose(board), SCORE_LEFT);
+            case BOTTOM:
+                return scoreRows(transpose(board), SCORE_RIGHT);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 计算向某个方向滑动时动了的瓷砖的去向，用于动画，原地不动的瓷砖没有条目（除非被合并），
+     * 按与{@link DataHelper}逐格移动相同的顺序写入out，约定见{@link Transitions}
+     * @param board 滑动前的位棋盘
+     * @param direction 方向
+     * @param out 写入的动画增量，不会先清空
+     */
+    public static void transitions(long board, Direction direction, Transitions out) {
+        boolean vertical = direction == Direction.TOP || direction == Direction.BOTTOM;
+        boolean forward = direction == Direction.LEFT || direction == Direction.TOP;
+        char[] table = forward ? MOTION_LEFT : MOTION_RIGHT;
+        long rows = vertical ? transpose(board) : board;
+        for (int i = 0; i < SIZE; i++) {
+            int line = (int) (rows >>> (i * 16)) & ROW_MASK;
+            if (line == 0) {
+                continue;
+            }
+            int motion = table[line];
+            int lastTarget = -1, lastIndex = -1, lastExponent = 0;     //lastIndex为-1表示上一块原地不动、还没有条目
+            for (int k = 0; k < SIZE; k++) {
+                int j = forward ? k : SIZE - 1 - k;
+                int exponent = (line >>> (j * 4)) & 0xf;
+                if (exponent == 0) {
+                    continue;
+                }
+                int distance = (motion >>> (j * 2)) & 0x3;
+                int target = forward ? j - distance : j + distance;
+                int from = vertical ? j * SIZE + i : i * SIZE + j;
+                int to = vertical ? target * SIZE + i : i * SIZE + target;
+                if (target == lastTarget) {                         //与上一块合并到同一格
+                    if (lastIndex < 0) {
+                        out.add(to, to, 1 << lastExponent, Transitions.MERGED);
+                    } else {
+                        out.addFlags(lastIndex, Transitions.MERGED);
+                    }
+                    out.add(from, to, 1 << exponent, Transitions.MERGED | Transitions.ABSORBED);
+                } else {
+                    lastIndex = distance == 0 ? -1 : out.add(from, to, 1 << exponent, 0);
+                }
+                lastTarget = target;
+                lastExponent = exponent;
+            }
+        }
+    }
+
+    /**
+     * 获取位棋盘上的最大指数
+     * @param board 位棋盘
+     * @return 最大指数，空面板返回0
+     */
+    public static int maxExponent(long board) {
+        int max = 0;
+        while (board != 0) {
+            int e = (int) board & 0xf;
+            if (e > max) max = e;
+            board >>>= 4;
+        }
+        return max;
+    }
+
+    /**
+     * 统计空格数量
+     * @param board 位棋盘
+     * @return 空格数量
+     */
+    public static int countEmpty(long board) {
+        //把每个4位折叠成最低位，非空格在最低位得到1
+        long x = board | (board >>> 2);
+        x |= x >>> 1;
+        x &= 0x1111111111111111L;
+        return SIZE * SIZE - Long.bitCount(x);
+    }
+}
@@ -0,0 +1,509 @@
+package com.namtah.game2048.engine;
+
+import java.util.Arrays;
+
+/**
+ * 紧凑面板，用于5阶、16阶等非4阶的面板：{@link DataHelper}把不够大、不值得并行滑动的这些面板存为紧凑面板，
+ * 搜索、撤销和快进也用它复制面板。
+ *
+ * 每块瓷砖用一个byte保存数值的指数（0表示空，k表示2^k），所有瓷砖按行依次存放在一个一维数组里，
+ * 因此一个面板只占number * number个字节，复制面板（搜索、撤销）只是一次数组拷贝。
+ * 指数最大可以到127，分数用long保存，不再受int的0x40000000上限限制。
+ *
+ * 滑动按行（或列）整行处理：5格的行查表（见{@link Row5}），16格的行先用字并行的方法
+ * 判断整行是否需要变化并跳过空格，其余宽度逐格处理。
+ */
+public final class ByteBoard {
+
+    private static final long LOW_SEVEN = 0x7f7f7f7f7f7f7f7fL;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    final int number;                           //阶数
+    private final byte[] mCells;                //瓷砖指数，按行存放
+    private final byte[] mLine;                 //滑动时复用的一行
+    private byte[] mScratch;                    //做对称时复用的整个面板，第一次用到时创建
+    private long stepScore;                     //每走一步的成绩
+    private int stepMaxExponent;                //每走一步后的最大指数
+
+    public ByteBoard(int number) {
+        if (number < 2) {
+            throw new IllegalArgumentException("The number must be at least 2, but you set " + number + "!");
+        }
+        this.number = number;
+        this.mCells = new byte[number * number];
+        this.mLine = new byte[number];
+    }
+
+    /**
+     * 复制一个面板
+     * @param other 被复制的面板
+     */
+    public ByteBoard(ByteBoard other) {
+        this(other.number);
+        System.arraycopy(other.mCells, 0, mCells, 0, mCells.length);
+    }
+
+    /**
+     * 从瓷砖数值数组创建面板，每块瓷砖必须是0或2的幂
+     * @param tiles 瓷砖数值二维数组
+     * @return 面板
+     */
+    public static ByteBoard fromTiles(int[][] tiles) {
+        ByteBoard board = new ByteBoard(tiles.length);
+        board.setTiles(tiles);
+        return board;
+    }
+
+    /**
+     * 瓷砖数值数组能否存为紧凑面板而不丢失信息
+     * @param tiles 瓷砖数值二维数组
+     * @return 每块瓷砖都是0或不小于2的2的幂时为true
+     */
+    static boolean canStore(int[][] tiles) {
+        for (int[] row : tiles) {
+            for (int value : row) {
+                if (value != 0 && (value == 1 || (value & (value - 1)) != 0)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 用瓷砖数值数组覆盖面板，数组阶数必须与面板相同，每块瓷砖必须是0或2的幂
+     * @param tiles 瓷砖数值二维数组
+     */
+    void setTiles(int[][] tiles) {
+        if (tiles.length != number) {
+            throw new IllegalArgumentException("Expect " + number + " rows but got " + tiles.length + "!");
+        }
+        for (int i = 0; i < number; i++) {
+            for (int j = 0; j < number; j++) {
+                int value = tiles[i][j];
+                if (value != 0 && (value & (value - 1)) != 0) {
+                    throw new IllegalArgumentException("Tile[" + i + "][" + j + "] = " + value + " is not a power of two!");
+                }
+                mCells[i * number + j] = (byte) (value == 0 ? 0 : Integer.numberOfTrailingZeros(value));
+            }
+        }
+    }
+
+    /**
+     * 把面板展开到瓷砖数值数组中，数组阶数必须与面板相同
+     * @param tiles 瓷砖数值二维数组
+     */
+    public void toTiles(int[][] tiles) {
+        if (tiles.length != number) {
+            throw new IllegalArgumentException("Expect " + number + " rows but got " + tiles.length + "!");
+        }
+        for (int i = 0; i < number; i++) {
+            for (int j = 0; j < number; j++) {
+                int exponent = mCells[i * number + j];
+                if (exponent >= 31) {
+                    throw new IllegalStateException("Tile[" + i + "][" + j + "] = 2^" + exponent + " does not fit in an int!");
+                }
+                tiles[i][j] = exponent == 0 ? 0 : 1 << exponent;
+            }
+        }
+    }
+
+    /**
+     * 从另一个同阶面板复制所有瓷砖
+     * @param other 另一个面板
+     */
+    public void copyFrom(ByteBoard other) {
+        if (other.number != number) {
+            throw new IllegalArgumentException("Can not copy a board of " + other.number + " into " + number + "!");
+        }
+        System.arraycopy(other.mCells, 0, mCells, 0, mCells.length);
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * 获取某个位置瓷砖的指数
+     * @param row 行数
+     * @param column 列数
+     * @return 指数，0表示空
+     */
+    public int get(int row, int column) {
+        return mCells[row * number + column];
+    }
+
+    /**
+     * 设置某个位置瓷砖的指数
+     * @param row 行数
+     * @param column 列数
+     * @param exponent 指数，0表示空
+     */
+    public void set(int row, int column, int exponent) {
+        mCells[row * number + column] = (byte) exponent;
+    }
+
+    /**
+     * 获取底层的指数数组（按行存放），修改会直接影响面板
+     * @return 指数数组
+     */
+    public byte[] getCells() {
+        return mCells;
+    }
+
+    /**
+     * 清空面板
+     */
+    public void clear() {
+        Arrays.fill(mCells, (byte) 0);
+    }
+
+    public long getStepScore() {
+        return stepScore;
+    }
+
+    public int getStepMaxExponent() {
+        return stepMaxExponent;
+    }
+
+    /**
+     * 统计空格数量
+     * @return 空格数量
+     */
+    public int countEmpty() {
+        int count = 0;
+        for (byte cell : mCells) {
+            if (cell == 0) ++count;
+        }
+        return count;
+    }
+
+    /**
+     * 获取最大指数
+     * @return 最大指数，空面板返回0
+     */
+    public int maxExponent() {
+        int max = 0;
+        for (byte cell : mCells) {
+            if (cell > max) max = cell;
+        }
+        return max;
+    }
+
+    /**
+     * 对面板做某种对称，编号与{@link Symmetry}相同
+     * @param symmetry 对称编号
+     */
+    public void transform(int symmetry) {
+        if (symmetry == Symmetry.IDENTITY) {
+            return;
+        }
+        if (mScratch == null) {
+            mScratch = new byte[mCells.length];
+        }
+        System.arraycopy(mCells, 0, mScratch, 0, mCells.length);
+        for (int p = 0; p < mCells.length; p++) {
+            mCells[p] = mScratch[source(symmetry, p)];
+        }
+    }
+
+    /**
+     * 换成8种对称中（按行逐格比较指数）最小的一种，互为对称的面板得到同一个结果，可以作为缓存的键；
+     * 在规范形式上得到的方向用{@link Symmetry#restore(Direction, int)}换算回原面板
+     * @return 所做的对称的编号
+     */
+    public int canonicalize() {
+        int best = Symmetry.IDENTITY;
+        for (int symmetry = 1; symmetry < Symmetry.COUNT; symmetry++) {
+            //逐格比较两种对称，不需要先把它们都展开
+            for (int p = 0; p < mCells.length; p++) {
+                int diff = mCells[source(symmetry, p)] - mCells[source(best, p)];
+                if (diff != 0) {
+                    if (diff < 0) {
+                        best = symmetry;
+                    }
+                    break;
+                }
+            }
+        }
+        transform(best);
+        return best;
+    }
+
+    //做对称后第p格的瓷砖原来所在的下标：依次撤销上下翻转、左右镜像和转置
+    private int source(int symmetry, int p) {
+        int row = p / number, column = p % number;
+        if ((symmetry & Symmetry.FLIP) != 0) {
+            row = number - 1 - row;
+        }
+        if ((symmetry & Symmetry.MIRROR) != 0) {
+            column = number - 1 - column;
+        }
+        return (symmetry & Symmetry.TRANSPOSE) != 0 ? column * number + row : row * number + column;
+    }
+
+    /**
+     * 向某个方向滑动，改变了数据返回true，未改变则返回false，
+     * 之后可以通过{@link #getStepScore()}和{@link #getStepMaxExponent()}获取这一步的结果
+     * @param direction 方向
+     * @return 面板是否发生变化
+     */
+    public boolean move(Direction direction) {
+        stepScore = 0;
+        boolean hasChanged = false;
+        int stride = lineStride(direction);
+        for (int i = 0; i < number; i++) {
+            int start = lineStart(direction, i);
+            if (stride == 1) {
+                System.arraycopy(mCells, start, mLine, 0, number);
+            } else {
+                for (int k = 0, p = start; k < number; k++, p += stride) {
+                    mLine[k] = mCells[p];
+                }
+            }
+            if (slide(mLine)) {
+                hasChanged = true;
+                if (stride == 1) {
+                    System.arraycopy(mLine, 0, mCells, start, number);
+                } else {
+                    for (int k = 0, p = start; k < number; k++, p += stride) {
+                        mCells[p] = mLine[k];
+                    }
+                }
+            }
+        }
+        stepMaxExponent = maxExponent();
+        return hasChanged;
+    }
+
+    //第i行（列）的起点，滑动统一按“向下标0方向”处理
+    private int lineStart(Direction direction, int i) {
+        switch (direction) {
+            case LEFT: return i * number;
+            case RIGHT: return i * number + number - 1;
+            case TOP: return i;
+            default: return (number - 1) * number + i;
+        }
+    }
+
+    //行（列）中相邻两格下标的差
+    private int lineStride(Direction direction) {
+        switch (direction) {
+            case LEFT: return 1;
+            case RIGHT: return -1;
+            case TOP: return number;
+            default: return -number;
+        }
+    }
+
+    /**
+     * 计算向某个方向滑动时动了的瓷砖的去向，用于动画，面板本身不变。
+     * 与{@link #slideLine(byte[])}相同的游标算法，顺序和约定与{@link Board4#transitions(long, Direction, Transitions)}相同
+     * @param direction 方向
+     * @param out 写入的动画增量，不会先清空
+     */
+    void transitions(Direction direction, Transitions out) {
+        int stride = lineStride(direction);
+        for (int i = 0; i < number; i++) {
+            int start = lineStart(direction, i);
+            int position = start;                   //游标所在的格子
+            int target = mCells[start];             //游标处滑动后的指数
+            int last = -1;                          //游标处的瓷砖在out中的下标，-1表示它原地不动、还没有条目
+            for (int k = 1, p = start + stride; k < number; k++, p += stride) {
+                int exponent = mCells[p];
+                if (exponent == 0)
+                    continue;
+                if (target == 0) {                                  // [p:0, k:2, 2, 4] -> [p:2, k:0, 2, 4]
+                    target = exponent;
+                    last = out.add(p, position, 1 << exponent, 0);
+                } else if (target == exponent) {                    // [p:2, 0, k:2, 4] -> [4, p:0, k:0, 4]
+                    if (last < 0) {
+                        out.add(position, position, 1 << target, Transitions.MERGED);
+                    } else {
+                        out.addFlags(last, Transitions.MERGED);
+                    }
+                    out.add(p, position, 1 << exponent, Transitions.MERGED | Transitions.ABSORBED);
+                    position += stride;
+                    target = 0;                                     //合并后游标处一定是空格
+                } else {                                            // [p:2, 0, k:4, 16] -> [2, p:4, k:0, 16]
+                    position += stride;
+                    target = exponent;
+                    last = position != p ? out.add(p, position, 1 << exponent, 0) : -1;
+                }
+            }
+        }
+    }
+
+    //把一行向下标0方向滑动，累加分数
+    private boolean slide(byte[] line) {
+        if (number == Row5.SIZE) {
+            int key = Row5.key(line);
+            if (key >= 0) {
+                int entry = Row5.TABLE[key];
+                if (entry >= 0) {
+                    return Row5.apply(this, line, key, entry);
+                }
+            }
+        } else if (number == 16) {
+            return slideWide(line);
+        }
+        return slideLine(line);
+    }
+
+    /**
+     * 16格一行的字并行处理：把一行装进两个long，一次算出所有非空格和相邻相等的格，
+     * 空行以及已经靠边且没有可以合并的行直接跳过，不再逐格比较。
+     */
+    private boolean slideWide(byte[] line) {
+        long lo = 0, hi = 0;
+        for (int k = 7; k >= 0; k--) {
+            lo = (lo << 8) | (line[k] & 0xff);
+            hi = (hi << 8) | (line[k + 8] & 0xff);
+        }
+        int occupied = (int) (moveMask(nonZero(lo)) | moveMask(nonZero(hi)) << 8);
+        if (occupied == 0) {
+            return false;
+        }
+        if ((occupied & (occupied + 1)) == 0) {
+            //非空格都已靠边，只要没有相邻相等的格就不会变化
+            //相邻两格相等时异或为0，第k位表示第k格与第k+1格相等
+            long pairs = moveMask(~nonZero(lo ^ (lo >>> 8))) | moveMask(~nonZero(hi ^ (hi >>> 8))) << 8;
+            pairs &= ~(1L << 7);
+            if (line[7] == line[8]) {
+                pairs |= 1 << 7;
+            }
+            if ((pairs & occupied & (occupied >>> 1)) == 0) {
+                return false;
+            }
+        }
+        return slideLine(line);
+    }
+
+    //每个非零字节的最高位置1
+    private static long nonZero(long x) {
+        return (((x & LOW_SEVEN) + LOW_SEVEN) | x) & HIGH_BITS;
+    }
+
+    //把每个字节的最高位收集成8位的掩码，第k个字节对应第k位
+    private static long moveMask(long highBits) {
+        return ((highBits & HIGH_BITS) >>> 7) * 0x0102040810204080L >>> 56;
+    }
+
+    //逐格滑动，与DataHelper.goLeft()相同的游标算法
+    private boolean slideLine(byte[] line) {
+        boolean hasChanged = false;
+        int position = 0;
+        for (int j = 1; j < number; j++) {
+            if (line[j] == 0)
+                continue;
+            if (line[position] == 0) {                          // [p:0, j:2, 2, 4] -> [p:2, j:0, 2, 4]
+                line[position] = line[j];
+                line[j] = 0;
+                hasChanged = true;
+            } else if (line[position] == line[j]) {             // [p:2, 0, j:2, 4] -> [4, p:0, j:0, 4]
+                line[position]++;
+                line[j] = 0;
+                stepScore += 1L << line[position];
+                hasChanged = true;
+                ++position;
+            } else {                                            // [p:2, 0, j:4, 16] -> [2, p:4, j:0, 16]
+                ++position;
+                if (position < j) {
+                    line[position] = line[j];
+                    line[j] = 0;
+                    hasChanged = true;
+                }
+            }
+        }
+        return hasChanged;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ByteBoard)) return false;
+        ByteBoard other = (ByteBoard) o;
+        return number == other.number && Arrays.equals(mCells, other.mCells);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mCells);
+    }
+
+    /**
+     * 5格一行的查表：每格4位组成20位的下标，表项低20位是滑动后的一行，
+     * 第20~24位是每一格是否合并，-1表示出现了两个2^15相合并（4位放不下），需要逐格处理。
+     * 表有一百万项，第一次用到5阶面板时才创建。
+     */
+    static final class Row5 {
+
+        static final int SIZE = 5;
+        static final int[] TABLE = new int[1 << (SIZE * 4)];
+
+        static {
+            int[] out = new int[SIZE];
+            for (int key = 0; key < TABLE.length; key++) {
+                Arrays.fill(out, 0);
+                int merged = 0;
+                int position = 0;
+                boolean overflow = false;
+                for (int c = 0; c < SIZE; c++) {
+                    int e = (key >>> (c * 4)) & 0xf;
+                    if (e == 0)
+                        continue;
+                    if (out[position] == 0) {
+                        out[position] = e;
+                    } else if (out[position] == e) {
+                        if (e == 15) {
+                            overflow = true;
+                            break;
+                        }
+                        out[position]++;
+                        merged |= 1 << position;
+                        ++position;
+                    } else {
+                        ++position;
+                        out[position] = e;
+                    }
+                }
+                if (overflow) {
+                    TABLE[key] = -1;
+                    continue;
+                }
+                int result = 0;
+                for (int c = 0; c < SIZE; c++) {
+                    result |= out[c] << (c * 4);
+                }
+                TABLE[key] = result | merged << (SIZE * 4);
+            }
+        }
+
+        //一行的查表下标，有指数超过15的格返回-1
+        static int key(byte[] line) {
+            int key = 0;
+            for (int c = SIZE - 1; c >= 0; c--) {
+                int e = line[c];
+                if (e > 15) {
+                    return -1;
+                }
+                key = (key << 4) | e;
+            }
+            return key;
+        }
+
+        static boolean apply(ByteBoard board, byte[] line, int key, int entry) {
+            int result = entry & 0xfffff;
+            if (result == key) {
+                return false;
+            }
+            for (int c = 0; c < SIZE; c++) {
+                line[c] = (byte) ((result >>> (c * 4)) & 0xf);
+                if ((entry >>> (SIZE * 4 + c) & 1) != 0) {
+                    board.stepScore += 1L << line[c];
+                }
+            }
+            return true;
+        }
+    }
+}
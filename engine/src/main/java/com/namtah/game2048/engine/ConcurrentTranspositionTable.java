@@ -0,0 +1,117 @@
+package com.namtah.game2048.engine;
+
+import java.util.Arrays;
+
+/**
+ * 可以被多个搜索线程同时读写的置换表，与{@link TranspositionTable}用法相同。
+ *
+ * 不加锁：每一项是两个long，一个是数据（估值和深度），另一个是位棋盘与数据的异或。
+ * 读取时两个long对不上（另一个线程写了一半）就当作未命中，所以不需要任何同步，
+ * 线程越多也不会在同一把锁上排队。命中和未命中的次数按线程分条累加（{@link Metrics.Counter}），
+ * 各线程不会每次查找都写同一个缓存行。
+ */
+public class ConcurrentTranspositionTable {
+
+    private final long[] mEntries;              //每项两个long：[位棋盘 ^ 数据, 数据]
+    private final int mMask;
+    private final Metrics.Counter mHits = new Metrics.Counter();
+    private final Metrics.Counter mMisses = new Metrics.Counter();
+
+    /**
+     * @param bits 容量为 2^bits 项
+     */
+    public ConcurrentTranspositionTable(int bits) {
+        if (bits < 4 || bits > 27) {
+            throw new IllegalArgumentException("bits must be in [4, 27], but you set " + bits + "!");
+        }
+        mEntries = new long[2 << bits];
+        mMask = (1 << bits) - 1;
+    }
+
+    //数据：高32位是估值，低8位是深度 + 1（0表示空）
+    private static long data(int depth, float value) {
+        return (long) Float.floatToRawIntBits(value) << 32 | (depth + 1);
+    }
+
+    /**
+     * 查找某个局面的估值
+     * @param board 位棋盘
+     * @param depth 需要的搜索深度，缓存的深度不小于它才算命中
+     * @return 估值，未命中返回{@link Float#NaN}
+     */
+    public float get(long board, int depth) {
+        int index = TranspositionTable.hash(board) & mMask;
+        for (int i = 0; i < TranspositionTable.PROBES; i++) {
+            int p = ((index + i) & mMask) << 1;
+            long data = mEntries[p + 1];
+            if (data == 0) {
+                break;
+            }
+            if ((mEntries[p] ^ data) == board) {
+                if ((int) (data & 0xff) - 1 >= depth) {
+                    mHits.increment();
+                    return Float.intBitsToFloat((int) (data >>> 32));
+                }
+                break;
+            }
+        }
+        mMisses.increment();
+        return Float.NaN;
+    }
+
+    /**
+     * 保存某个局面的估值
+     * @param board 位棋盘
+     * @param depth 搜索深度
+     * @param value 估值
+     */
+    public void put(long board, int depth, float value) {
+        int index = TranspositionTable.hash(board) & mMask;
+        int victim = index << 1;
+        int victimDepth = Integer.MAX_VALUE;
+        for (int i = 0; i < TranspositionTable.PROBES; i++) {
+            int p = ((index + i) & mMask) << 1;
+            long data = mEntries[p + 1];
+            if (data == 0) {
+                victim = p;
+                break;
+            }
+            if ((mEntries[p] ^ data) == board) {
+                if ((int) (data & 0xff) - 1 > depth) {
+                    return;
+                }
+                victim = p;
+                break;
+            }
+            int d = (int) (data & 0xff);
+            if (d < victimDepth) {
+                victim = p;
+                victimDepth = d;
+            }
+        }
+        long data = data(depth, value);
+        mEntries[victim] = board ^ data;
+        mEntries[victim + 1] = data;
+    }
+
+    /**
+     * 清空置换表，不能与搜索同时进行
+     */
+    public void clear() {
+        Arrays.fill(mEntries, 0);
+        mHits.reset();
+        mMisses.reset();
+    }
+
+    public int capacity() {
+        return mMask + 1;
+    }
+
+    public long getHits() {
+        return mHits.get();
+    }
+
+    public long getMisses() {
+        return mMisses.get();
+    }
+}
@@ -0,0 +1,1030 @@
+package com.namtah.game2048.engine;
+
+import java.util.Random;
+
+/**
+ * 包括每块瓷砖的数据以及一些用来动画辅助的数据，
+ * 用来进行滑动及生成新瓷砖的方法。
+ *
+ * 动画数据只记录这一步移动、合并和新生成的瓷砖（见{@link Transitions}），原地不动的瓷砖没有条目，
+ * 记录和复制动画数据的开销与动了的瓷砖数成正比，而不是与面板面积成正比。
+ *
+ * 4阶面板存为一个long的位棋盘（见{@link Board4}），滑动、生成新瓷砖和统计都直接在位棋盘上查表完成；
+ * 出现32768后位棋盘无法再合并，改存为紧凑面板。
+ * 5阶、16阶等小于{@link ParallelMover#MIN_NUMBER}的面板存为紧凑面板（见{@link ByteBoard}），在它上面整行滑动，
+ * 统计在需要时逐字节重新算一遍。两种情况下瓷砖数组和动画增量都只在界面通过{@link #getTiles()}、
+ * {@link #getTransitions()}读取时才生成。更大的面板仍然直接在瓷砖数组上滑动（可以按条带并行），统计逐格增量更新。
+ */
+public class DataHelper {
+
+    public static final float DEFAULT_PROBABILITY_FOUR = 0.18f;     //新瓷砖是4的默认概率
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private int number;                         //阶数、底数（base）
+    private int mTiles[][];                     //瓷砖数组（大面板滑动后即时修改；存为位棋盘或紧凑面板时只是它的展开，读取时才更新）
+    private boolean mPacked;                    //面板是否存为位棋盘mBoard（4阶且没有32768以上的瓷砖）
+    private long mBoard;                        //位棋盘，mPacked时才有效
+    private ByteBoard mCompact;                 //不为null时面板存为紧凑面板，重复使用
+    private ByteBoard mMovedCompact;            //紧凑面板上一步滑动前的面板，用于生成动画增量，重复使用
+    private boolean mTilesStale;                //mTiles还没有按mBoard或mCompact更新
+    private boolean mStatsStale;                //紧凑面板滑动后还没有重新统计空格数等
+    private boolean mTransitionsStale;          //位棋盘或紧凑面板滑动后还没有生成动画增量
+    private long mMovedFrom;                    //位棋盘上一步滑动前的面板，用于生成动画增量
+    private Direction mMovedDirection;          //位棋盘或紧凑面板上一步滑动的方向，null表示没有滑动
+    private final Transitions mTransitions = new Transitions(16);   //动画增量（动了的瓷砖的旧值、去向、是否合并，以及新生成的瓷砖），重复使用
+    private int stepScore, stepMax;             //每走一步的成绩，瓷砖最大值（用来判断是否达到了2048）
+    private final Point[] mNewPoints = {new Point(0, 0), new Point(0, 0)};  //最近一次新生成瓷砖的位置，第一次游戏和重新游戏需要生成两个，重复使用
+    private int mNewCount;                      //mNewPoints中有效的个数
+    private int mRowEmpty[];                    //每行的空格数，随滑动增量更新，生成新瓷砖时据此直接找到第k个空格
+    private Random mRandom;                     //生成新瓷砖用的随机数
+    private float mProbabilityFour = DEFAULT_PROBABILITY_FOUR;      //新瓷砖是4的概率
+    private int mEmpty;                         //空格数
+    private int mPairsH, mPairsV;               //左右、上下相邻且相等的瓷砖对数
+    private final int[] mGaps = new int[4];     //下标为方向，该方向上紧挨着空格的瓷砖数（能往该方向移动）
+    private ParallelMover mMover;               //大面板的并行滑动，没有设置时逐行处理
+    private Metrics mMetrics;                   //性能指标，没有设置时不记录
+    private Metrics.Timer[] mMoveTimers;        //下标为方向
+    private Metrics.Timer mSpawnTimer;
+    private Metrics.Counter mMoveCounter, mCheckCounter;
+
+    public DataHelper() {
+        this(new Random());
+    }
+
+    /**
+     * @param random 生成新瓷砖用的随机数，传入固定种子的实例可以让对局完全重现；
+     *               每个线程使用各自的DataHelper和Random就不会争用同一个随机数
+     */
+    public DataHelper(Random random) {
+        mRandom = random;
+        int[][] defaultTiles = {{0, 0, 0, 0}, {0, 0, 0, 0}, {0, 0, 0, 0}, {0, 0, 0, 0}};
+        setTiles(defaultTiles);
+    }
+
+    /**
+     * 设置所有瓷砖数值，接受一个二维数组，且二维数组的行数与列数必须相同。
+     * 小于{@link ParallelMover#MIN_NUMBER}阶的面板之后存为位棋盘或紧凑面板，数组只在{@link #getTiles()}时才更新，应通过它读取
+     * @param tiles 瓷砖数值二维数组
+     */
+    public void setTiles(int[][] tiles) {
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i].length != tiles.length) {
+                throw new IllegalArgumentException("The number of rows and of columns must be the same. You have "
+                        + tiles.length + " rows but in Row[" + i + "] you set " + tiles[i].length + " columns!");
+            }
+        }
+        this.mTiles = tiles;
+        this.number = mTiles.length;
+        if (mRowEmpty == null || mRowEmpty.length != number) {
+            mRowEmpty = new int[number];
+        }
+        repack();
+        stayAll();
+    }
+
+    //面板被整个替换，能用位棋盘或紧凑面板表示时转过去，否则重新统计
+    private void repack() {
+        mPacked = Board4.canPack(mTiles);
+        mTilesStale = mStatsStale = false;
+        if (mPacked) {
+            mBoard = Board4.pack(mTiles);
+            mCompact = null;
+        } else if (number < ParallelMover.MIN_NUMBER && ByteBoard.canStore(mTiles)) {
+            compact().setTiles(mTiles);
+            recountCompact();
+        } else {
+            mCompact = null;
+            recount();
+        }
+    }
+
+    //取得阶数与当前相同的紧凑面板，没有时创建
+    private ByteBoard compact() {
+        if (mCompact == null || mCompact.number != number) {
+            mCompact = new ByteBoard(number);
+            mMovedCompact = new ByteBoard(number);
+        }
+        return mCompact;
+    }
+
+    /**
+     * 获取当前所有瓷砖数值，存为位棋盘时先展开。直接修改数组后应调用{@link #setTiles(int[][])}，
+     * 否则面板和{@link #getMovableMask()}等统计不会更新
+     * @return 当前瓷砖数值数组
+     */
+    public int[][] getTiles() {
+        if (mTilesStale) {
+            if (mPacked) {
+                Board4.unpack(mBoard, mTiles);
+            } else {
+                mCompact.toTiles(mTiles);
+            }
+            mTilesStale = false;
+        }
+        return mTiles;
+    }
+
+    /**
+     * 面板是否存为位棋盘，是则可以用{@link #getPackedBoard()}直接取得，不必展开成数组再压缩
+     * @return 4阶且没有32768以上的瓷砖时为true
+     */
+    public boolean isPacked() {
+        return mPacked;
+    }
+
+    /**
+     * 获取位棋盘，只在{@link #isPacked()}为true时有效
+     * @return 位棋盘，见{@link Board4}
+     */
+    public long getPackedBoard() {
+        return mBoard;
+    }
+
+    /**
+     * 获取阶数
+     * @return 阶数
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * 获取上一步滑动所得的分数
+     * @return 上一步的分数
+     */
+    public int getStepScore() {
+        return stepScore;
+    }
+
+    /**
+     * 获取上一步滑动后的瓷砖最大值
+     * @return 上一步后的最大值
+     */
+    public int getStepMax() {
+        return stepMax;
+    }
+
+
+    /**
+     * 将当前瓷砖保存为紧凑面板，每块瓷砖只占一个字节，适合搜索和撤销时大量复制
+     * @return 当前瓷砖的紧凑面板
+     */
+    public ByteBoard toByteBoard() {
+        return mCompact != null ? new ByteBoard(mCompact) : ByteBoard.fromTiles(getTiles());
+    }
+
+    /**
+     * 用紧凑面板覆盖当前瓷砖，面板阶数必须与当前相同
+     * @param board 紧凑面板
+     */
+    public void setByteBoard(ByteBoard board) {
+        if (mCompact != null && board.number == number) {
+            //已经存为紧凑面板时直接复制，不经过瓷砖数组
+            mCompact.copyFrom(board);
+            mTilesStale = true;
+            recountCompact();
+        } else {
+            board.toTiles(mTiles);
+            repack();
+        }
+        stayAll();
+    }
+
+    /**
+     * 获取某个位置的瓷砖数值
+     * @param row 行数
+     * @param column 列数
+     * @return 该位置的瓷砖数值
+     */
+    public int get(int row, int column) {
+        if (mPacked) {
+            return Board4.value(Board4.get(mBoard, row, column));
+        }
+        return mCompact != null ? Board4.value(mCompact.get(row, column)) : mTiles[row][column];
+    }
+
+    /**
+     * 获取最近一次滑动和生成新瓷砖的动画增量，应在滑动后调用。原地不动的瓷砖没有条目，应从面板读取；
+     * 面板被整个替换后（{@link #setTiles(int[][])}等）为空
+     * @return 动画增量，下次滑动时被复用
+     */
+    public Transitions getTransitions() {
+        if (mTransitionsStale) {
+            mTransitionsStale = false;
+            mTransitions.clear();
+            if (mMovedDirection != null && mPacked) {
+                Board4.transitions(mMovedFrom, mMovedDirection, mTransitions);
+            } else if (mMovedDirection != null) {
+                mMovedCompact.transitions(mMovedDirection, mTransitions);
+            }
+            for (int k = 0; k < mNewCount; k++) {
+                addSpawned(mNewPoints[k]);
+            }
+        }
+        return mTransitions;
+    }
+
+    //面板被整个替换，所有瓷砖都原地不动，没有动画增量
+    private void stayAll() {
+        mTransitions.clear();
+        mTransitionsStale = false;
+        mMovedDirection = null;
+        mNewCount = 0;
+    }
+
+    //游标处的瓷砖被合并进来：它已经移动过就给它的条目加上标志，原地不动时补一个起点和终点相同的条目
+    private void mergeInto(int last, int cell, int value) {
+        if (last < 0) {
+            mTransitions.add(cell, cell, value, Transitions.MERGED);
+        } else {
+            mTransitions.addFlags(last, Transitions.MERGED);
+        }
+    }
+
+    /**
+     * 清空瓷砖数值数组
+     */
+    public void clear() {
+        for (int i = 0; i < number; i++) {
+            for (int j = 0; j < number; j++) {
+                mTiles[i][j] = 0;
+            }
+        }
+        repack();
+        stayAll();
+    }
+
+    /**
+     * 检查是否可以继续走，应在每次滑动后进行检查。
+     * 统计随每次滑动和生成增量更新，不再扫描整个面板；位棋盘直接查表试走
+     * @return 是否可以继续走
+     */
+    public boolean checkAccessibility() {
+        if (mCheckCounter != null) {
+            mCheckCounter.increment();      //只读几个统计，计时比它本身还慢，只计次数
+        }
+        return getMovableMask() != 0;
+    }
+
+    /**
+     * 获取可以走的方向
+     * @return 第{@link Direction#ordinal()}位表示能否向该方向走
+     */
+    public int getMovableMask() {
+        int mask = 0;
+        if (mPacked) {
+            for (Direction d : DIRECTIONS) {
+                if (Board4.move(mBoard, d) != mBoard) mask |= 1 << d.ordinal();
+            }
+            return mask;
+        }
+        if (mStatsStale) {
+            recountCompact();
+        }
+        if (mPairsH > 0 || mGaps[Direction.LEFT.ordinal()] > 0) mask |= 1 << Direction.LEFT.ordinal();
+        if (mPairsH > 0 || mGaps[Direction.RIGHT.ordinal()] > 0) mask |= 1 << Direction.RIGHT.ordinal();
+        if (mPairsV > 0 || mGaps[Direction.TOP.ordinal()] > 0) mask |= 1 << Direction.TOP.ordinal();
+        if (mPairsV > 0 || mGaps[Direction.BOTTOM.ordinal()] > 0) mask |= 1 << Direction.BOTTOM.ordinal();
+        return mask;
+    }
+
+    /**
+     * 向某个方向走是否会改变面板，不需要真的去走
+     * @param direction 方向
+     * @return 是否会改变
+     */
+    public boolean canMove(Direction direction) {
+        return (getMovableMask() & 1 << direction.ordinal()) != 0;
+    }
+
+    /**
+     * 获取空格数
+     * @return 空格数
+     */
+    public int getEmptyCount() {
+        if (mPacked) {
+            return Board4.countEmpty(mBoard);
+        }
+        if (mStatsStale) {
+            recountCompact();
+        }
+        return mEmpty;
+    }
+
+    //修改一格，并增量更新它与四周相邻格子的统计
+    private void setCell(int row, int column, int value) {
+        int old = mTiles[row][column];
+        if (old == value) {
+            return;
+        }
+        countAround(row, column, -1);
+        mTiles[row][column] = value;
+        countAround(row, column, 1);
+        if (old == 0) {
+            --mEmpty;
+            --mRowEmpty[row];
+        } else if (value == 0) {
+            ++mEmpty;
+            ++mRowEmpty[row];
+        }
+    }
+
+    private void countAround(int row, int column, int delta) {
+        if (column > 0) countPair(mTiles[row][column - 1], mTiles[row][column], true, delta);
+        if (column < number - 1) countPair(mTiles[row][column], mTiles[row][column + 1], true, delta);
+        if (row > 0) countPair(mTiles[row - 1][column], mTiles[row][column], false, delta);
+        if (row < number - 1) countPair(mTiles[row][column], mTiles[row + 1][column], false, delta);
+    }
+
+    //一对相邻的格子，first在左（上），second在右（下）
+    private void countPair(int first, int second, boolean horizontal, int delta) {
+        if (first == 0) {
+            if (second != 0) {          //second能往左（上）走
+                mGaps[(horizontal ? Direction.LEFT : Direction.TOP).ordinal()] += delta;
+            }
+        } else if (second == 0) {       //first能往右（下）走
+            mGaps[(horizontal ? Direction.RIGHT : Direction.BOTTOM).ordinal()] += delta;
+        } else if (first == second) {
+            if (horizontal) {
+                mPairsH += delta;
+            } else {
+                mPairsV += delta;
+            }
+        }
+    }
+
+    //面板被整个替换，重新统计
+    private void recount() {
+        mEmpty = mPairsH = mPairsV = 0;
+        for (int d = 0; d < mGaps.length; d++) {
+            mGaps[d] = 0;
+        }
+        for (int i = 0; i < number; i++) {
+            mRowEmpty[i] = 0;
+            for (int j = 0; j < number; j++) {
+                if (mTiles[i][j] == 0) {
+                    ++mEmpty;
+                    ++mRowEmpty[i];
+                }
+                if (j < number - 1) countPair(mTiles[i][j], mTiles[i][j + 1], true, 1);
+                if (i < number - 1) countPair(mTiles[i][j], mTiles[i + 1][j], false, 1);
+            }
+        }
+    }
+
+    //紧凑面板的重新统计，与recount()相同，逐字节扫描
+    private void recountCompact() {
+        byte[] cells = mCompact.getCells();
+        mEmpty = mPairsH = mPairsV = 0;
+        for (int d = 0; d < mGaps.length; d++) {
+            mGaps[d] = 0;
+        }
+        for (int i = 0, p = 0; i < number; i++) {
+            mRowEmpty[i] = 0;
+            for (int j = 0; j < number; j++, p++) {
+                if (cells[p] == 0) {
+                    ++mEmpty;
+                    ++mRowEmpty[i];
+                }
+                if (j < number - 1) countPair(cells[p], cells[p + 1], true, 1);
+                if (i < number - 1) countPair(cells[p], cells[p + number], false, 1);
+            }
+        }
+        mStatsStale = false;
+    }
+
+    //修改紧凑面板的一格，并增量更新它与四周相邻格子的统计，与setCell()相同
+    private void setCompactCell(int row, int column, int exponent) {
+        byte[] cells = mCompact.getCells();
+        int p = row * number + column;
+        int old = cells[p];
+        countAroundCompact(cells, row, column, -1);
+        cells[p] = (byte) exponent;
+        countAroundCompact(cells, row, column, 1);
+        if (old == 0) {
+            --mEmpty;
+            --mRowEmpty[row];
+        } else if (exponent == 0) {
+            ++mEmpty;
+            ++mRowEmpty[row];
+        }
+    }
+
+    private void countAroundCompact(byte[] cells, int row, int column, int delta) {
+        int p = row * number + column;
+        if (column > 0) countPair(cells[p - 1], cells[p], true, delta);
+        if (column < number - 1) countPair(cells[p], cells[p + 1], true, delta);
+        if (row > 0) countPair(cells[p - number], cells[p], false, delta);
+        if (row < number - 1) countPair(cells[p], cells[p + number], false, delta);
+    }
+
+    /**
+     * 更换生成新瓷砖用的随机数
+     * @param random 随机数
+     */
+    public void setRandom(Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * 设置新瓷砖是4的概率，用于平衡性测试；提示引擎的搜索仍按默认概率估算
+     * @param probability 概率，0~1
+     */
+    public void setProbabilityFour(float probability) {
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("The probability must be between 0 and 1, but you set " + probability + "!");
+        }
+        mProbabilityFour = probability;
+    }
+
+    /**
+     * 添加一个新的瓷砖并记录位置
+     */
+    public void putOneNewTile() {
+        mNewCount = 0;
+        mTransitions.removeSpawned();
+        spawned(createNewTile(mNewPoints[mNewCount++]));
+    }
+
+    /**
+     * 添加两个新的瓷砖并记录位置
+     */
+    public void putTwoNewTile() {
+        mNewCount = 0;
+        mTransitions.removeSpawned();
+        spawned(createNewTile(mNewPoints[mNewCount++]));
+        spawned(createNewTile(mNewPoints[mNewCount++]));
+    }
+
+    //把新生成的瓷砖记入动画增量；滑动的动画增量还没有生成时，等读取时与它一起生成
+    private void spawned(Point p) {
+        if (!mTransitionsStale) {
+            addSpawned(p);
+        }
+    }
+
+    private void addSpawned(Point p) {
+        int cell = p.x * number + p.y;
+        mTransitions.add(cell, cell, get(p.x, p.y), Transitions.SPAWNED);
+    }
+
+    /**
+     * 取得最近一次新添加的瓷砖个数
+     * @return 新添加的瓷砖个数
+     */
+    public int getNewTileCount() {
+        return mNewCount;
+    }
+
+    /**
+     * 取得最近一次新添加的瓷砖，返回的对象会在下次添加时被复用
+     * @param index 第几个，小于{@link #getNewTileCount()}
+     * @return 新添加的瓷砖位置
+     */
+    public Point getNewTile(int index) {
+        return mNewPoints[index];
+    }
+
+    /**
+     * 某个位置的瓷砖是否是最近一次新添加的
+     * @param row 行数
+     * @param column 列数
+     * @return 是否新添加
+     */
+    public boolean isNewTile(int row, int column) {
+        for (int k = 0; k < mNewCount; k++) {
+            if (mNewPoints[k].x == row && mNewPoints[k].y == column) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //在随机的空格生成2或4，位置写入p
+    Point createNewTile(Point p) {
+        if (mMetrics == null) {
+            return spawn(p);
+        }
+        long start = System.nanoTime();
+        spawn(p);
+        mSpawnTimer.recordSince(start);
+        return p;
+    }
+
+    //按行的空格数先找到行、再在这一行里找到第k个空格，只读O(number)格；按行优先的顺序与逐格收集空格时相同，同样的随机数生成同样的位置
+    private Point spawn(Point p) {
+        if (mPacked) {
+            return spawnPacked(p);
+        }
+        if (mStatsStale) {
+            recountCompact();
+        }
+        if (mEmpty == 0) {
+            throw new IllegalStateException("There is no empty tile to put a new one!");
+        }
+        int k = mRandom.nextInt(mEmpty);
+        int row = 0;
+        while (k >= mRowEmpty[row]) {
+            k -= mRowEmpty[row++];
+        }
+        if (mCompact != null) {
+            return spawnCompact(p, row, k);
+        }
+        int column = 0;
+        for (; ; column++) {
+            if (mTiles[row][column] == 0 && k-- == 0) {
+                break;
+            }
+        }
+        p.x = row;
+        p.y = column;
+        if (mRandom.nextFloat() >= mProbabilityFour) {
+            setCell(p.x, p.y, 2);
+        } else {
+            setCell(p.x, p.y, 4);
+        }
+        return p;
+    }
+
+    //紧凑面板上在第row行找第k个空格，其余与上面相同
+    private Point spawnCompact(Point p, int row, int k) {
+        byte[] cells = mCompact.getCells();
+        int column = 0;
+        for (int start = row * number; ; column++) {
+            if (cells[start + column] == 0 && k-- == 0) {
+                break;
+            }
+        }
+        p.x = row;
+        p.y = column;
+        setCompactCell(row, column, mRandom.nextFloat() >= mProbabilityFour ? 1 : 2);
+        mTilesStale = true;
+        return p;
+    }
+
+    //位棋盘上按行优先的顺序找第k个空格，与上面逐格的写法用同样的随机数生成同样的位置
+    private Point spawnPacked(Point p) {
+        int empty = Board4.countEmpty(mBoard);
+        if (empty == 0) {
+            throw new IllegalStateException("There is no empty tile to put a new one!");
+        }
+        int k = mRandom.nextInt(empty);
+        int cell = 0;
+        for (long rest = mBoard; ; rest >>>= 4, cell++) {
+            if ((rest & 0xf) == 0 && k-- == 0) {
+                break;
+            }
+        }
+        p.x = cell / Board4.SIZE;
+        p.y = cell % Board4.SIZE;
+        int exponent = mRandom.nextFloat() >= mProbabilityFour ? 1 : 2;
+        mBoard |= (long) exponent << (cell * 4);
+        mTilesStale = true;
+        return p;
+    }
+
+    //4阶面板在位棋盘上查表滑动，结果与下面逐格移动的写法一致；瓷砖数组和动画增量等到读取时再生成
+    private boolean goPacked(Direction direction) {
+        long board = mBoard;
+        long moved = Board4.move(board, direction);
+        mNewCount = 0;
+        int maxExponent = Board4.maxExponent(moved);
+        stepMax = Board4.value(maxExponent);
+        if (moved == board) {
+            stepScore = 0;
+            mTransitions.clear();
+            mTransitionsStale = false;
+            mMovedDirection = null;
+            return false;
+        }
+        stepScore = Board4.score(board, direction);
+        mBoard = moved;
+        mTilesStale = true;
+        mMovedFrom = board;
+        mMovedDirection = direction;
+        mTransitionsStale = true;
+        if (maxExponent >= Board4.MAX_EXPONENT) {
+            unpackAll();
+        }
+        return true;
+    }
+
+    //出现了32768，位棋盘上两个32768无法合并，展开瓷砖数组和动画增量，之后存为紧凑面板
+    private void unpackAll() {
+        getTiles();
+        getTransitions();
+        mPacked = false;
+        compact().setTiles(mTiles);
+        recountCompact();
+    }
+
+    //紧凑面板整行滑动，结果与下面逐格移动的写法一致；统计、瓷砖数组和动画增量等到需要时再生成
+    private boolean goCompact(Direction direction) {
+        mNewCount = 0;
+        mMovedCompact.copyFrom(mCompact);
+        boolean hasChanged = mCompact.move(direction);
+        stepScore = (int) mCompact.getStepScore();
+        stepMax = Board4.value(mCompact.getStepMaxExponent());
+        if (!hasChanged) {
+            mTransitions.clear();
+            mTransitionsStale = false;
+            mMovedDirection = null;
+            return false;
+        }
+        mTilesStale = true;
+        mStatsStale = true;
+        mMovedDirection = direction;
+        mTransitionsStale = true;
+        return true;
+    }
+
+    /**
+     * 设置大面板的并行滑动，阶数不小于{@link ParallelMover#MIN_NUMBER}时按条带并行处理，结果与逐行处理相同
+     * @param mover 并行滑动，为null时逐行处理
+     */
+    public void setParallelMover(ParallelMover mover) {
+        mMover = mover;
+    }
+
+    public ParallelMover getParallelMover() {
+        return mMover;
+    }
+
+    /**
+     * 设置性能指标，之后记录滑动和生成新瓷砖的耗时、滑动的次数，以及{@link #checkAccessibility()}的调用次数。
+     * 多个线程的DataHelper可以共用一个，见{@link Metrics}
+     * @param metrics 性能指标，为null时不记录
+     */
+    public void setMetrics(Metrics metrics) {
+        mMetrics = metrics;
+        if (metrics == null) {
+            mMoveTimers = null;
+            mSpawnTimer = null;
+            mMoveCounter = mCheckCounter = null;
+            return;
+        }
+        mMoveTimers = new Metrics.Timer[Direction.values().length];
+        mMoveTimers[Direction.LEFT.ordinal()] = metrics.timer(Metrics.MOVE_LEFT);
+        mMoveTimers[Direction.RIGHT.ordinal()] = metrics.timer(Metrics.MOVE_RIGHT);
+        mMoveTimers[Direction.TOP.ordinal()] = metrics.timer(Metrics.MOVE_TOP);
+        mMoveTimers[Direction.BOTTOM.ordinal()] = metrics.timer(Metrics.MOVE_BOTTOM);
+        mCheckCounter = metrics.counter(Metrics.CHECK_ACCESSIBILITY);
+        mSpawnTimer = metrics.timer(Metrics.CREATE_NEW_TILE);
+        mMoveCounter = metrics.counter(Metrics.MOVES);
+    }
+
+    public Metrics getMetrics() {
+        return mMetrics;
+    }
+
+    private boolean isParallel() {
+        return mMover != null && number >= ParallelMover.MIN_NUMBER;
+    }
+
+    //大面板按条带并行滑动，统计由各条带一起算好，不再逐格增量更新
+    private boolean goParallel(Direction direction) {
+        mTransitions.clear();
+        mNewCount = 0;
+        synchronized (mMover) {
+            boolean hasChanged = mMover.move(mTiles, direction, mTransitions);
+            stepScore = mMover.stepScore;
+            stepMax = mMover.stepMax;
+            if (!hasChanged) {
+                return false;
+            }
+            ParallelMover.Counts counts = mMover.counts;
+            mEmpty = counts.empty;
+            System.arraycopy(counts.rowEmpty, 0, mRowEmpty, 0, number);
+            mPairsH = counts.pairsH;
+            mPairsV = counts.pairsV;
+            System.arraycopy(counts.gaps, 0, mGaps, 0, mGaps.length);
+        }
+        return true;
+    }
+
+    /**
+     * 快进：连续走多步，每步之后在指定的位置放指定的新瓷砖，用于重放和自动走。
+     * 在紧凑面板上完成，不记录动画增量，结束后{@link #getStepScore()}是所有步的分数之和，
+     * {@link #getStepMax()}是最后的最大值，{@link #getTransitions()}为空。
+     * 新瓷砖的位置超出面板或已经有瓷砖、数值不是不小于2的2的幂时抛出异常，此时面板保持不变
+     * @param directions 每步的方向
+     * @param spawnCells 每步之后新瓷砖的位置（row * number + column）
+     * @param spawnValues 每步之后新瓷砖的数值
+     * @param count 步数
+     * @param stepScores 不为null时写入每步的分数
+     * @return 实际走了几步，遇到不能走的方向时停下
+     * @throws IllegalArgumentException 某一步的新瓷砖不合法，异常信息中有是第几步
+     */
+    public int fastForward(Direction[] directions, int[] spawnCells, int[] spawnValues, int count, int[] stepScores) {
+        ByteBoard board = toByteBoard();
+        int total = 0;
+        int steps = 0;
+        for (; steps < count; steps++) {
+            int cell = spawnCells[steps];
+            int value = spawnValues[steps];
+            if (cell < 0 || cell >= number * number) {
+                throw new IllegalArgumentException("Step " + steps + " puts a new tile out of the board: " + cell + "!");
+            }
+            if (value < 2 || (value & (value - 1)) != 0) {
+                throw new IllegalArgumentException("Step " + steps + " puts a new tile of " + value + ", not a power of two no less than 2!");
+            }
+            if (!board.move(directions[steps])) {
+                break;
+            }
+            int score = (int) board.getStepScore();
+            total += score;
+            if (stepScores != null) {
+                stepScores[steps] = score;
+            }
+            //是否已经有瓷砖要在滑动之后才能确定
+            if (board.get(cell / number, cell % number) != 0) {
+                throw new IllegalArgumentException("Step " + steps + " puts a new tile on the taken tile " + cell + "!");
+            }
+            board.set(cell / number, cell % number, Integer.numberOfTrailingZeros(value));
+        }
+        setByteBoard(board);
+        stepScore = total;
+        stepMax = Board4.value(board.maxExponent());
+        return steps;
+    }
+
+    /**
+     * 向某个方向走，改变了数据返回true，未改变则返回false
+     * @param direction 方向
+     * @return 瓷砖数组是否发生变化
+     */
+    public boolean go(Direction direction) {
+        if (mMetrics == null) {
+            return move(direction);
+        }
+        long start = System.nanoTime();
+        boolean hasChanged = move(direction);
+        mMoveTimers[direction.ordinal()].recordSince(start);
+        mMoveCounter.increment();
+        return hasChanged;
+    }
+
+    //滑动但不记录性能指标，用于后台预先计算的后继：它们不一定会被走，不应算进滑动的次数和耗时
+    boolean move(Direction direction) {
+        if (mPacked) {
+            return goPacked(direction);
+        }
+        if (mCompact != null) {
+            return goCompact(direction);
+        }
+        switch (direction) {
+            case LEFT: return moveLeft();
+            case RIGHT: return moveRight();
+            case TOP: return moveTop();
+            case BOTTOM: return moveBottom();
+            default: return false;
+        }
+    }
+
+    /**
+     * 向左走，改变了数据返回true，未改变则返回false
+     * @return 瓷砖数组是否发生变化
+     */
+    public boolean goLeft() {
+        return go(Direction.LEFT);
+    }
+
+    private boolean moveLeft() {
+        if (isParallel()) {
+            return goParallel(Direction.LEFT);
+        }
+        mTransitions.clear();
+        mNewCount = 0;
+        boolean hasChanged = false;
+        stepMax = stepScore = 0;
+        int temp = 0;
+        for (int i = 0; i < number; i++) {
+            int position = 0;    //辅助游标
+            int last = -1;       //游标处的瓷砖在mTransitions中的下标，-1表示它原地不动、还没有条目
+            if (stepMax < mTiles[i][position]) stepMax = mTiles[i][0];     //由于第一个数没进入循环，需要专门判断一次
+            for (int j = 1; j < number; j++) {
+                if (mTiles[i][j] == 0)
+                    continue;
+                //else
+                if (mTiles[i][position] == 0) {                     // [p:0, j:2, 2, 4] -> [p:2, j:0, 2, 4]
+                    setCell(i, position, mTiles[i][j]);
+                    setCell(i, j, 0);
+                    last = mTransitions.add(i * number + j, i * number + position, mTiles[i][position], 0);
+                    hasChanged = true;
+                    temp = mTiles[i][position];
+                } else {    // mTitle[i][position] != 0
+                    if (mTiles[i][position] == mTiles[i][j]) {      // [p:2, 0, j:2, 4] -> [4, p:0, j:0, 4]
+                        mergeInto(last, i * number + position, mTiles[i][position]);
+                        mTransitions.add(i * number + j, i * number + position, mTiles[i][j], Transitions.MERGED | Transitions.ABSORBED);
+                        setCell(i, position, mTiles[i][position] + mTiles[i][j]);
+                        setCell(i, j, 0);
+                        stepScore += mTiles[i][position];
+                        hasChanged = true;
+                        temp = mTiles[i][position];
+                        ++position;
+                    } else {                                        // [p:2, j:4, 8, 16] -> [2, p:j:4, 8, 16] or
+                        ++position;                                 // [p:2, 0, j:4, 16] -> [2, p:4, j:0, 16]
+                        if (position < j) {
+                            setCell(i, position, mTiles[i][j]);
+                            setCell(i, j, 0);
+                            hasChanged = true;
+                            last = mTransitions.add(i * number + j, i * number + position, mTiles[i][position], 0);
+                        } else {
+                            last = -1;
+                        }
+                        temp = mTiles[i][position];
+                    }
+                }
+                if (stepMax < temp) {
+                    stepMax = temp;
+                }
+            }
+        }
+        return hasChanged;
+    }
+
+    /**
+     * 向右走，改变了数据返回true，未改变则返回false
+     * @return 瓷砖数组是否发生变化
+     */
+    public boolean goRight() {
+        return go(Direction.RIGHT);
+    }
+
+    private boolean moveRight() {
+        if (isParallel()) {
+            return goParallel(Direction.RIGHT);
+        }
+        mTransitions.clear();
+        mNewCount = 0;
+        boolean hasChanged = false;
+        stepMax = stepScore = 0;
+        int temp = 0;
+        for (int i = 0; i < number; i++) {
+            int position = number - 1;
+            int last = -1;
+            if (stepMax < mTiles[i][position]) stepMax = mTiles[i][position];
+            for (int j = position - 1; j >= 0; j--) {
+                if (mTiles[i][j] == 0)
+                    continue;
+                if (mTiles[i][position] == 0) {
+                    setCell(i, position, mTiles[i][j]);
+                    setCell(i, j, 0);
+                    last = mTransitions.add(i * number + j, i * number + position, mTiles[i][position], 0);
+                    hasChanged = true;
+                    temp = mTiles[i][position];
+                } else {
+                    if (mTiles[i][position] == mTiles[i][j]) {
+                        mergeInto(last, i * number + position, mTiles[i][position]);
+                        mTransitions.add(i * number + j, i * number + position, mTiles[i][j], Transitions.MERGED | Transitions.ABSORBED);
+                        setCell(i, position, mTiles[i][position] + mTiles[i][j]);
+                        setCell(i, j, 0);
+                        stepScore += mTiles[i][position];
+                        hasChanged = true;
+                        temp = mTiles[i][position];
+                        --position;
+                    } else {
+                        --position;
+                        if (position > j) {
+                            setCell(i, position, mTiles[i][j]);
+                            setCell(i, j, 0);
+                            hasChanged = true;
+                            last = mTransitions.add(i * number + j, i * number + position, mTiles[i][position], 0);
+                        } else {
+                            last = -1;
+                        }
+                        temp = mTiles[i][position];
+                    }
+                }
+                if (stepMax < temp) {
+                    stepMax = temp;
+                }
+            }
+        }
+        return hasChanged;
+    }
+
+    /**
+     * 向上走，改变了数据返回true，未改变则返回false
+     * @return 瓷砖数组是否发生变化
+     */
+    public boolean goTop() {
+        return go(Direction.TOP);
+    }
+
+    private boolean moveTop() {
+        if (isParallel()) {
+            return goParallel(Direction.TOP);
+        }
+        mTransitions.clear();
+        mNewCount = 0;
+        boolean hasChanged = false;
+        stepMax = stepScore = 0;
+        int temp = 0;
+        for (int i = 0; i < number; i++) {
+            int position = 0;
+            int last = -1;
+            if (stepMax < mTiles[position][i]) stepMax = mTiles[position][i];
+            for (int j = 1; j < number; j++) {
+                if (mTiles[j][i] == 0)
+                    continue;
+                if (mTiles[position][i] == 0) {
+                    setCell(position, i, mTiles[j][i]);
+                    setCell(j, i, 0);
+                    last = mTransitions.add(j * number + i, position * number + i, mTiles[position][i], 0);
+                    hasChanged = true;
+                    temp = mTiles[position][i];
+                } else {
+                    if (mTiles[position][i] == mTiles[j][i]) {
+                        mergeInto(last, position * number + i, mTiles[position][i]);
+                        mTransitions.add(j * number + i, position * number + i, mTiles[j][i], Transitions.MERGED | Transitions.ABSORBED);
+                        setCell(position, i, mTiles[position][i] + mTiles[j][i]);
+                        setCell(j, i, 0);
+                        stepScore += mTiles[position][i];
+                        hasChanged = true;
+                        temp = mTiles[position][i];
+                        ++position;
+                    } else {
+                        ++position;
+                        if (position < j) {
+                            setCell(position, i, mTiles[j][i]);
+                            setCell(j, i, 0);
+                            hasChanged = true;
+                            last = mTransitions.add(j * number + i, position * number + i, mTiles[position][i], 0);
+                        } else {
+                            last = -1;
+                        }
+                        temp = mTiles[position][i];
+                    }
+                }
+                if (stepMax < temp) {
+                    stepMax = temp;
+                }
+            }
+        }
+        return hasChanged;
+    }
+
+    /**
+     * 向下走，改变了数据返回true，未改变则返回false
+     * @return 瓷砖数组是否发生变化
+     */
+    public boolean goBottom() {
+        return go(Direction.BOTTOM);
+    }
+
+    private boolean moveBottom() {
+        if (isParallel()) {
+            return goParallel(Direction.BOTTOM);
+        }
+        mTransitions.clear();
+        mNewCount = 0;
+        boolean hasChanged = false;
+        stepMax = stepScore = 0;
+        int temp = 0;
+        for (int i = 0; i < number; i++) {
+            int position = number - 1;
+            int last = -1;
+            if (stepMax < mTiles[position][i]) stepMax = mTiles[position][i];
+            for (int j = position - 1; j >= 0; j--) {
+                if (mTiles[j][i] == 0)
+                    continue;
+                if (mTiles[position][i] == 0) {
+                    setCell(position, i, mTiles[j][i]);
+                    setCell(j, i, 0);
+                    last = mTransitions.add(j * number + i, position * number + i, mTiles[position][i], 0);
+                    hasChanged = true;
+                    temp = mTiles[position][i];
+                } else {
+                    if (mTiles[position][i] == mTiles[j][i]) {
+                        mergeInto(last, position * number + i, mTiles[position][i]);
+                        mTransitions.add(j * number + i, position * number + i, mTiles[j][i], Transitions.MERGED | Transitions.ABSORBED);
+                        setCell(position, i, mTiles[position][i] + mTiles[j][i]);
+                        setCell(j, i, 0);
+                        stepScore += mTiles[position][i];
+                        hasChanged = true;
+                        temp = mTiles[position][i];
+                        --position;
+                    } else {
+                        --position;
+                        if (position > j) {
+                            setCell(position, i, mTiles[j][i]);
+                            setCell(j, i, 0);
+                            hasChanged = true;
+                            last = mTransitions.add(j * number + i, position * number + i, mTiles[position][i], 0);
+                        } else {
+                            last = -1;
+                        }
+                        temp = mTiles[position][i];
+                    }
+                }
+                if (stepMax < temp) {
+                    stepMax = temp;
+                }
+            }
+        }
+        return hasChanged;
+    }
+
+}
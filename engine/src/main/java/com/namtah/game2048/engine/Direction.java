@@ -0,0 +1,8 @@
+package com.namtah.game2048.engine;
+
+/**
+ * 滑动方向
+ */
+public enum Direction {
+    LEFT, RIGHT, TOP, BOTTOM
+}
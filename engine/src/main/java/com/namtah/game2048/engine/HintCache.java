@@ -0,0 +1,339 @@
+package com.namtah.game2048.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 提示结果的缓存：以规范形式的位棋盘（见{@link Symmetry}）为键，保存{@link HintEngine}搜索得到的四个方向的估值，
+ * 容量固定，满了以后淘汰最久没有用到的一项（LRU）。开局和常见的中局反复出现，命中时不需要再搜索。
+ *
+ * 所有项连同LRU链表都放在一块{@link ByteBuffer}里，可以映射到文件（{@link #map(File, int)}），
+ * 修改直接写入文件，重新启动后仍然有效。文件格式为（小端）：
+ * <pre>
+ * int MAGIC, int VERSION, int 容量, int 项数, int 最近用到的项, int 最久没用到的项,
+ * 每项：long 位棋盘, float[4] 规范形式上每个方向的估值, int 搜索深度, int 前一项, int 后一项, int 校验和
+ * </pre>
+ * 键到项的散列索引只在内存中，打开时遍历链表重建；链表不完整（例如写到一半时进程被杀）就清空缓存。
+ * 校验和覆盖位棋盘、估值和深度，每次保存时最后写入；某一项写到一半时进程被杀，新的位棋盘配上旧的估值对不上校验和，
+ * {@link #get(long)}当作未命中，下次保存时覆盖。
+ * 此类是线程安全的。
+ */
+public final class HintCache {
+
+    static final int MAGIC = 0x43544e48;            //"HNTC"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 24;
+    static final int ENTRY_SIZE = 40;
+
+    //文件头中各项的位置
+    private static final int CAPACITY = 8;
+    private static final int SIZE = 12;
+    private static final int HEAD = 16;
+    private static final int TAIL = 20;
+    //每项中各字段的位置
+    private static final int KEY = 0;
+    private static final int VALUES = 8;
+    private static final int DEPTH = 24;
+    private static final int PREV = 28;
+    private static final int NEXT = 32;
+    private static final int CHECKSUM = 36;
+
+    private static final int NIL = -1;
+
+    private final ByteBuffer mBuffer;
+    private final MappedByteBuffer mMapped;         //映射到文件时用于写回，否则为null
+    private final int mCapacity;
+    private final int[] mBuckets;                   //散列桶，每个桶是一条单向链表的第一项
+    private final int[] mChain;                     //同一个桶中的下一项
+    private final int mMask;
+    private long hits, misses;                      //命中、未命中次数
+
+    private HintCache(ByteBuffer buffer, MappedByteBuffer mapped, int capacity) {
+        mBuffer = buffer;
+        mMapped = mapped;
+        mCapacity = capacity;
+        int buckets = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1);
+        mBuckets = new int[buckets];
+        mChain = new int[capacity];
+        mMask = buckets - 1;
+    }
+
+    /**
+     * 在内存中创建空的缓存，不保存到文件
+     * @param capacity 最多缓存的项数
+     */
+    public HintCache(int capacity) {
+        this(ByteBuffer.allocateDirect(byteSize(checkCapacity(capacity))).order(ByteOrder.LITTLE_ENDIAN), null, capacity);
+        reset();
+    }
+
+    /**
+     * 把缓存文件映射进内存，文件不存在、格式不对或容量不同时重新创建一个空的
+     * @param file 缓存文件
+     * @param capacity 最多缓存的项数
+     * @return 缓存
+     * @throws IOException 无法创建或映射文件
+     */
+    public static HintCache map(File file, int capacity) throws IOException {
+        checkCapacity(capacity);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = byteSize(capacity);
+            boolean fresh = channel.size() != size;
+            if (fresh) {
+                raf.setLength(size);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            HintCache cache = new HintCache(mapped, mapped, capacity);
+            if (fresh || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION
+                    || mapped.getInt(CAPACITY) != capacity || !cache.rebuild()) {
+                cache.reset();
+            }
+            return cache;
+        } finally {
+            //映射在通道关闭后仍然有效
+            raf.close();
+        }
+    }
+
+    private static int checkCapacity(int capacity) {
+        if (capacity < 1 || capacity > (1 << 24)) {
+            throw new IllegalArgumentException("capacity must be in [1, 2^24], but you set " + capacity + "!");
+        }
+        return capacity;
+    }
+
+    private static int byteSize(int capacity) {
+        return HEADER_SIZE + capacity * ENTRY_SIZE;
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * ENTRY_SIZE;
+    }
+
+    /**
+     * 查找某个局面的提示，命中时把它移到最近用到的位置
+     * @param board 位棋盘
+     * @return 提示，搜索节点数为0；未命中返回null
+     */
+    public synchronized HintEngine.Hint get(long board) {
+        long start = System.nanoTime();
+        int symmetry = Symmetry.canonicalSymmetry(board);
+        int slot = find(Symmetry.apply(board, symmetry));
+        if (slot == NIL || !isIntact(slot)) {
+            ++misses;
+            return null;
+        }
+        ++hits;
+        moveToFront(slot);
+        int base = offset(slot);
+        HintEngine.Hint hint = new HintEngine.Hint();
+        for (Direction d : HintEngine.DIRECTIONS) {
+            int canonical = Symmetry.apply(d, symmetry).ordinal();
+            hint.values[d.ordinal()] = mBuffer.getFloat(base + VALUES + canonical * 4);
+        }
+        hint.depth = mBuffer.getInt(base + DEPTH);
+        hint.pickBest();
+        hint.elapsedNanos = System.nanoTime() - start;
+        return hint;
+    }
+
+    /**
+     * 保存一次搜索的结果，已经缓存了更深的结果时不覆盖；连深度1都没有搜完的结果不保存
+     * @param board 位棋盘
+     * @param hint 搜索结果
+     */
+    public synchronized void put(long board, HintEngine.Hint hint) {
+        if (hint.depth <= 0) {
+            return;
+        }
+        int symmetry = Symmetry.canonicalSymmetry(board);
+        long key = Symmetry.apply(board, symmetry);
+        int slot = find(key);
+        if (slot != NIL) {
+            moveToFront(slot);
+            if (isIntact(slot) && mBuffer.getInt(offset(slot) + DEPTH) > hint.depth) {
+                return;
+            }
+        } else {
+            int size = mBuffer.getInt(SIZE);
+            if (size < mCapacity) {
+                slot = size;
+                mBuffer.putInt(SIZE, size + 1);
+            } else {
+                slot = mBuffer.getInt(TAIL);
+                unlink(slot);
+                removeIndex(slot);
+            }
+            mBuffer.putLong(offset(slot) + KEY, key);
+            addIndex(slot, key);
+            pushFront(slot);
+        }
+        int base = offset(slot);
+        for (Direction d : HintEngine.DIRECTIONS) {
+            int canonical = Symmetry.apply(d, symmetry).ordinal();
+            mBuffer.putFloat(base + VALUES + canonical * 4, hint.values[d.ordinal()]);
+        }
+        mBuffer.putInt(base + DEPTH, hint.depth);
+        mBuffer.putInt(base + CHECKSUM, checksum(slot));
+    }
+
+    /**
+     * 清空缓存和统计数据
+     */
+    public synchronized void clear() {
+        reset();
+        hits = misses = 0;
+    }
+
+    /**
+     * 映射到文件时把修改写回文件，否则什么也不做
+     */
+    public synchronized void flush() {
+        if (mMapped != null) {
+            mMapped.force();
+        }
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    public synchronized int size() {
+        return mBuffer.getInt(SIZE);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * 命中率
+     * @return 命中次数 / 查找次数，还没有查找过时返回0
+     */
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    //写入空的文件头
+    private void reset() {
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putInt(4, VERSION);
+        mBuffer.putInt(CAPACITY, mCapacity);
+        mBuffer.putInt(SIZE, 0);
+        mBuffer.putInt(HEAD, NIL);
+        mBuffer.putInt(TAIL, NIL);
+        Arrays.fill(mBuckets, NIL);
+    }
+
+    //从最近用到的一项开始遍历链表重建散列索引，链表与项数对不上时返回false
+    private boolean rebuild() {
+        Arrays.fill(mBuckets, NIL);
+        int size = mBuffer.getInt(SIZE);
+        if (size < 0 || size > mCapacity) {
+            return false;
+        }
+        int count = 0, prev = NIL;
+        for (int slot = mBuffer.getInt(HEAD); slot != NIL; slot = mBuffer.getInt(offset(slot) + NEXT)) {
+            if (slot < 0 || slot >= size || count++ == size || mBuffer.getInt(offset(slot) + PREV) != prev) {
+                return false;
+            }
+            addIndex(slot, mBuffer.getLong(offset(slot) + KEY));
+            prev = slot;
+        }
+        return count == size && mBuffer.getInt(TAIL) == prev;
+    }
+
+    //位棋盘、估值和深度的校验和
+    private int checksum(int slot) {
+        int base = offset(slot);
+        long h = MAGIC ^ mBuffer.getLong(base + KEY);
+        for (int i = 0; i < 4; i++) {
+            h = h * 0x9E3779B97F4A7C15L + mBuffer.getInt(base + VALUES + i * 4);
+        }
+        h = h * 0x9E3779B97F4A7C15L + mBuffer.getInt(base + DEPTH);
+        return (int) (h ^ h >>> 32);
+    }
+
+    //某一项是否完整写入
+    private boolean isIntact(int slot) {
+        return mBuffer.getInt(offset(slot) + CHECKSUM) == checksum(slot);
+    }
+
+    private int find(long key) {
+        for (int slot = mBuckets[TranspositionTable.hash(key) & mMask]; slot != NIL; slot = mChain[slot]) {
+            if (mBuffer.getLong(offset(slot) + KEY) == key) {
+                return slot;
+            }
+        }
+        return NIL;
+    }
+
+    private void addIndex(int slot, long key) {
+        int bucket = TranspositionTable.hash(key) & mMask;
+        mChain[slot] = mBuckets[bucket];
+        mBuckets[bucket] = slot;
+    }
+
+    private void removeIndex(int slot) {
+        int bucket = TranspositionTable.hash(mBuffer.getLong(offset(slot) + KEY)) & mMask;
+        if (mBuckets[bucket] == slot) {
+            mBuckets[bucket] = mChain[slot];
+            return;
+        }
+        for (int s = mBuckets[bucket]; s != NIL; s = mChain[s]) {
+            if (mChain[s] == slot) {
+                mChain[s] = mChain[slot];
+                return;
+            }
+        }
+    }
+
+    private void moveToFront(int slot) {
+        if (mBuffer.getInt(HEAD) != slot) {
+            unlink(slot);
+            pushFront(slot);
+        }
+    }
+
+    private void unlink(int slot) {
+        int base = offset(slot);
+        int prev = mBuffer.getInt(base + PREV), next = mBuffer.getInt(base + NEXT);
+        if (prev == NIL) {
+            mBuffer.putInt(HEAD, next);
+        } else {
+            mBuffer.putInt(offset(prev) + NEXT, next);
+        }
+        if (next == NIL) {
+            mBuffer.putInt(TAIL, prev);
+        } else {
+            mBuffer.putInt(offset(next) + PREV, prev);
+        }
+    }
+
+    private void pushFront(int slot) {
+        int base = offset(slot);
+        int head = mBuffer.getInt(HEAD);
+        mBuffer.putInt(base + PREV, NIL);
+        mBuffer.putInt(base + NEXT, head);
+        if (head == NIL) {
+            mBuffer.putInt(TAIL, slot);
+        } else {
+            mBuffer.putInt(offset(head) + PREV, slot);
+        }
+        mBuffer.putInt(HEAD, slot);
+    }
+}
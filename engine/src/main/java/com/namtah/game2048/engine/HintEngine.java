@@ -0,0 +1,409 @@
+package com.namtah.game2048.engine;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 提示引擎：在4阶位棋盘（见{@link Board4}）上做期望最大（expectimax）搜索，给出每个方向的期望估值。
+ *
+ * 最大节点是玩家的四个方向，机会节点是{@link DataHelper}生成新瓷砖的所有可能：
+ * 每个空格以0.82的概率生成2、0.18的概率生成4。机会节点的结果缓存在{@link TranspositionTable}中，
+ * 估值函数在8种对称下不变，所以以规范形式（见{@link Symmetry}）为键，对称的局面只搜索一次。
+ * 搜索按深度1、2、3……迭代加深，到达时间预算时停止，返回最后一个完整搜索完的深度的结果。
+ *
+ * 搜索在单独的后台线程中进行，通过{@link #search(long, long, OnHintListener)}提交，
+ * 设置了{@link HintCache}时先查缓存，搜索完的结果也存入缓存；
+ * 调用{@link #cancel()}会让正在进行和排队中的搜索尽快结束并且不再回调。
+ */
+public class HintEngine {
+
+    static final float PROBABILITY_TWO = 0.82f;             //生成2的概率，与DataHelper.createNewTile()一致
+    static final float PROBABILITY_FOUR = 1 - PROBABILITY_TWO;
+    static final float PROBABILITY_CUTOFF = 0.0001f;        //到达概率小于它的分支不再展开
+    private static final int MAX_DEPTH = 12;
+    private static final int CHECK_INTERVAL = 0xff;          //每隔多少个节点检查一次时间和取消
+    static final Direction[] DIRECTIONS = Direction.values();
+
+    //估值参数
+    private static final float SCORE_LOST_PENALTY = 200000f;
+    private static final float MONOTONICITY_POWER = 4f;
+    private static final float MONOTONICITY_WEIGHT = 47f;
+    private static final float SUM_POWER = 3.5f;
+    private static final float SUM_WEIGHT = 11f;
+    private static final float MERGES_WEIGHT = 700f;
+    private static final float EMPTY_WEIGHT = 270f;
+
+    //每一行（16位）的估值表
+    private static final float[] ROW_HEURISTIC = new float[65536];
+
+    static {
+        int[] line = new int[Board4.SIZE];
+        for (int row = 0; row < 65536; row++) {
+            for (int c = 0; c < Board4.SIZE; c++) {
+                line[c] = (row >>> (c * 4)) & 0xf;
+            }
+            float sum = 0;
+            int empty = 0, merges = 0;
+            int prev = 0, counter = 0;
+            for (int rank : line) {
+                sum += Math.pow(rank, SUM_POWER);
+                if (rank == 0) {
+                    empty++;
+                } else {
+                    if (prev == rank) {
+                        counter++;
+                    } else if (counter > 0) {
+                        merges += 1 + counter;
+                        counter = 0;
+                    }
+                    prev = rank;
+                }
+            }
+            if (counter > 0) {
+                merges += 1 + counter;
+            }
+            float monoLeft = 0, monoRight = 0;
+            for (int c = 1; c < Board4.SIZE; c++) {
+                float a = (float) Math.pow(line[c - 1], MONOTONICITY_POWER);
+                float b = (float) Math.pow(line[c], MONOTONICITY_POWER);
+                if (line[c - 1] > line[c]) {
+                    monoLeft += a - b;
+                } else {
+                    monoRight += b - a;
+                }
+            }
+            ROW_HEURISTIC[row] = SCORE_LOST_PENALTY + EMPTY_WEIGHT * empty + MERGES_WEIGHT * merges
+                    - MONOTONICITY_WEIGHT * Math.min(monoLeft, monoRight) - SUM_WEIGHT * sum;
+        }
+    }
+
+    /**
+     * 提示结果回调，在搜索线程中调用
+     */
+    public interface OnHintListener {
+        void onHint(Hint hint);
+    }
+
+    /**
+     * 一次搜索的结果
+     */
+    public static class Hint {
+        final float[] values = new float[4];        //按Direction.ordinal()保存每个方向的期望估值，不能走的方向为负无穷
+        Direction best;                    //最佳方向，没有可走的方向时为null
+        int depth;                                  //完整搜索完的深度
+        long nodes;                                 //搜索的节点数
+        long elapsedNanos;                          //耗时
+
+        public Direction getBest() {
+            return best;
+        }
+
+        /**
+         * 获取某个方向的期望估值
+         * @param direction 方向
+         * @return 期望估值，不能走的方向返回负无穷
+         */
+        public float getValue(Direction direction) {
+            return values[direction.ordinal()];
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * 每秒搜索的节点数
+         * @return 搜索速度
+         */
+        public double getNodesPerSecond() {
+            return elapsedNanos == 0 ? 0 : nodes * 1e9 / elapsedNanos;
+        }
+
+        //连深度1都没搜完，退回到只看估值
+        void evaluateOnly(long board) {
+            for (Direction d : DIRECTIONS) {
+                long moved = Board4.move(board, d);
+                values[d.ordinal()] = moved == board ? Float.NEGATIVE_INFINITY : evaluate(moved);
+            }
+        }
+
+        void pickBest() {
+            best = null;
+            float bestValue = Float.NEGATIVE_INFINITY;
+            for (Direction d : DIRECTIONS) {
+                if (values[d.ordinal()] > bestValue) {
+                    bestValue = values[d.ordinal()];
+                    best = d;
+                }
+            }
+        }
+    }
+
+    //超时或取消时用来跳出递归，预先创建，不产生栈信息
+    private static final RuntimeException ABORT = new RuntimeException("search aborted") {
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    };
+
+    private final TranspositionTable mTable;
+    private final Object mSearchLock = new Object();    //同一时刻只进行一次搜索，置换表不是线程安全的
+    private ExecutorService mExecutor;
+    private volatile int mGeneration;               //每次取消加1，搜索发现与开始时不同就结束
+    private long mNodes, mDeadline;
+    private int mSearchGeneration;
+    private NTupleNetwork mNetwork;                 //不为null时叶子节点用训练好的网络估值
+    private volatile HintCache mCache;              //提示结果的缓存，没有设置时为null
+    private volatile long mReachedBudget = -1;      //最近一次实际搜索的时间预算（毫秒），-1表示还没有搜索过
+    private volatile int mReachedDepth;             //最近一次实际搜索搜完的深度
+
+    public HintEngine() {
+        this(new TranspositionTable(18));
+    }
+
+    public HintEngine(TranspositionTable table) {
+        mTable = table;
+    }
+
+    /**
+     * 用训练好的n元组网络代替{@link #evaluate(long)}给叶子节点估值，置换表中按旧估值缓存的结果会被清空
+     * @param network 网络，为null时恢复默认的估值函数
+     */
+    public void setNetwork(NTupleNetwork network) {
+        synchronized (mSearchLock) {
+            mNetwork = network;
+            mTable.clear();
+        }
+    }
+
+    /**
+     * 设置提示结果的缓存，{@link #search(long, long, OnHintListener)}命中、且缓存的深度不浅于这次预算能搜到的深度时直接返回，不再搜索
+     * @param cache 缓存，为null时不使用缓存
+     */
+    public void setCache(HintCache cache) {
+        mCache = cache;
+    }
+
+    public HintCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * 估值函数：所有行和列的估值之和
+     * @param board 位棋盘
+     * @return 估值
+     */
+    public static float evaluate(long board) {
+        return evaluateRows(board) + evaluateRows(Board4.transpose(board));
+    }
+
+    private static float evaluateRows(long board) {
+        return ROW_HEURISTIC[(int) board & 0xffff]
+                + ROW_HEURISTIC[(int) (board >>> 16) & 0xffff]
+                + ROW_HEURISTIC[(int) (board >>> 32) & 0xffff]
+                + ROW_HEURISTIC[(int) (board >>> 48) & 0xffff];
+    }
+
+    /**
+     * 在后台线程中搜索，结束后在后台线程回调，被取消的搜索不回调；
+     * 命中缓存、且缓存的深度不浅于这次预算能搜到的深度时不搜索，直接在调用线程回调；
+     * 否则照常搜索，更深的结果会替换缓存中的
+     * @param board 位棋盘
+     * @param budgetMillis 时间预算（毫秒）
+     * @param l 结果回调
+     */
+    public synchronized void search(final long board, final long budgetMillis, final OnHintListener l) {
+        final HintCache cache = mCache;
+        if (cache != null) {
+            Hint cached = cache.get(board);
+            if (cached != null && cached.depth >= targetDepth(budgetMillis)) {
+                if (l != null) {
+                    l.onHint(cached);
+                }
+                return;
+            }
+        }
+        if (mExecutor == null) {
+            mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "HintEngine");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+        }
+        final int generation = mGeneration;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration) {
+                    return;
+                }
+                Hint hint = searchNow(board, budgetMillis * 1000000L, generation);
+                if (hint != null) {
+                    mReachedBudget = budgetMillis;
+                    mReachedDepth = hint.depth;
+                }
+                if (hint != null && cache != null) {
+                    cache.put(board, hint);
+                }
+                if (hint != null && generation == mGeneration && l != null) {
+                    l.onHint(hint);
+                }
+            }
+        });
+    }
+
+    /**
+     * 估计某个时间预算能搜到的深度，用于判断缓存的结果够不够深：按最近一次实际搜索的结果估计，
+     * 预算更少时少算一层；还没有搜索过时不知道，返回{@link #MAX_DEPTH}，第一次总是实际搜索
+     * @param budgetMillis 时间预算（毫秒）
+     * @return 深度
+     */
+    private int targetDepth(long budgetMillis) {
+        long reachedBudget = mReachedBudget;
+        if (reachedBudget < 0) {
+            return MAX_DEPTH;
+        }
+        int depth = mReachedDepth;
+        return budgetMillis >= reachedBudget ? depth : Math.max(1, depth - 1);
+    }
+
+    /**
+     * 取消正在进行和排队中的搜索，应在UI线程调用
+     */
+    public void cancel() {
+        mGeneration++;
+    }
+
+    /**
+     * 取消所有搜索并结束后台线程
+     */
+    public synchronized void shutdown() {
+        cancel();
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+    }
+
+    /**
+     * 在当前线程中同步搜索
+     * @param board 位棋盘
+     * @param budgetNanos 时间预算（纳秒）
+     * @return 搜索结果，被取消时返回null
+     */
+    public Hint searchNow(long board, long budgetNanos) {
+        return searchNow(board, budgetNanos, mGeneration);
+    }
+
+    /**
+     * 在当前线程中同步搜索到固定深度，不限时间，用于比较不同搜索实现
+     * @param board 位棋盘
+     * @param depth 搜索深度
+     * @return 搜索结果，被取消时返回null
+     */
+    public Hint searchDepth(long board, int depth) {
+        synchronized (mSearchLock) {
+            return searchLocked(board, Long.MAX_VALUE / 4, mGeneration, depth, depth);
+        }
+    }
+
+    private Hint searchNow(long board, long budgetNanos, int generation) {
+        synchronized (mSearchLock) {
+            return searchLocked(board, budgetNanos, generation, 1, MAX_DEPTH);
+        }
+    }
+
+    private Hint searchLocked(long board, long budgetNanos, int generation, int minDepth, int maxDepth) {
+        long start = System.nanoTime();
+        mDeadline = start + budgetNanos;
+        mSearchGeneration = generation;
+        mNodes = 0;
+
+        Hint hint = new Hint();
+        float[] values = new float[4];
+        Direction[] directions = DIRECTIONS;
+        for (int depth = minDepth; depth <= maxDepth; depth++) {
+            try {
+                for (Direction d : directions) {
+                    long moved = Board4.move(board, d);
+                    values[d.ordinal()] = moved == board ? Float.NEGATIVE_INFINITY : chance(moved, depth - 1, 1f);
+                }
+            } catch (RuntimeException e) {
+                if (e != ABORT) {
+                    throw e;
+                }
+                break;
+            }
+            System.arraycopy(values, 0, hint.values, 0, values.length);
+            hint.depth = depth;
+            if (System.nanoTime() > mDeadline) {
+                break;
+            }
+        }
+        if (hint.depth == 0) {
+            hint.evaluateOnly(board);
+        }
+        hint.pickBest();
+        hint.nodes = mNodes;
+        hint.elapsedNanos = System.nanoTime() - start;
+        return generation == mGeneration ? hint : null;
+    }
+
+    //机会节点：对所有空格可能生成的2和4求期望
+    private float chance(long board, int depth, float probability) {
+        if (depth == 0 || probability < PROBABILITY_CUTOFF) {
+            return mNetwork != null ? mNetwork.evaluate(board) : evaluate(board);
+        }
+        long key = Symmetry.canonical(board);           //对称的局面期望相同，共用一项
+        float cached = mTable.get(key, depth);
+        if (!Float.isNaN(cached)) {
+            return cached;
+        }
+        int empty = Board4.countEmpty(board);
+        float each = probability / empty;
+        float sum = 0;
+        long tile = 1;
+        for (long rest = board; tile != 0; rest >>>= 4, tile <<= 4) {
+            if ((rest & 0xf) == 0) {
+                sum += PROBABILITY_TWO * max(board | tile, depth - 1, each * PROBABILITY_TWO);
+                sum += PROBABILITY_FOUR * max(board | tile << 1, depth - 1, each * PROBABILITY_FOUR);
+            }
+        }
+        float value = sum / empty;
+        mTable.put(key, depth, value);
+        return value;
+    }
+
+    //最大节点：四个方向中最好的，无路可走时为0
+    private float max(long board, int depth, float probability) {
+        if ((++mNodes & CHECK_INTERVAL) == 0
+                && (System.nanoTime() > mDeadline || mSearchGeneration != mGeneration)) {
+            throw ABORT;
+        }
+        float best = 0;
+        for (Direction d : DIRECTIONS) {
+            long moved = Board4.move(board, d);
+            if (moved != board) {
+                float value = chance(moved, depth, probability);
+                if (value > best) {
+                    best = value;
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,166 @@
+package com.namtah.game2048.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定大小、无锁的直方图，用于记录耗时等非负整数的分布。
+ *
+ * 桶按对数-线性划分：小于8的值每个值一个桶，之后每个2的幂再均分成8个桶，所以任何值的相对误差不超过12.5%，
+ * 覆盖整个long范围只需要{@link #BUCKETS}个桶。{@link #record(long)}只做几次原子加法，不分配内存，可以在绘制线程、
+ * 后台线程中同时调用；读取时各个计数不是同一时刻的快照，但每个计数本身是准确的。
+ */
+public final class Histogram {
+
+    private static final int SUB_BITS = 3;                      //每个2的幂均分成2^SUB_BITS个桶
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    public static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * 记录一个值
+     * @param value 值，负数按0记录
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mBuckets.incrementAndGet(bucket(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            //被其它线程抢先更新，重试
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getSum() {
+        return mSum.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * 平均值
+     * @return 平均值，没有记录时返回0
+     */
+    public double getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : (double) mSum.get() / count;
+    }
+
+    /**
+     * 百分位（最近秩法），结果是所在桶的上界，不超过记录过的最大值
+     * @param p 百分位，0~1
+     * @return 值，没有记录时返回0
+     */
+    public long percentile(double p) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += mBuckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /**
+     * 某个桶的计数
+     * @param bucket 桶的下标
+     * @return 计数
+     */
+    public long getBucketCount(int bucket) {
+        return mBuckets.get(bucket);
+    }
+
+    /**
+     * 把另一个直方图的计数加进来，用于合并各线程分别记录的直方图
+     * @param other 另一个直方图
+     */
+    public void add(Histogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.mBuckets.get(i);
+            if (count != 0) {
+                mBuckets.addAndGet(i, count);
+            }
+        }
+        mCount.addAndGet(other.mCount.get());
+        mSum.addAndGet(other.mSum.get());
+        long value = other.mMax.get();
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            //被其它线程抢先更新，重试
+        }
+    }
+
+    /**
+     * 清空所有计数，与record()同时调用时可能漏掉几个值
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * 值所在的桶
+     * @param value 非负的值
+     * @return 桶的下标
+     */
+    static int bucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * 桶中最小的值
+     * @param bucket 桶的下标
+     * @return 值
+     */
+    public static long lowerBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+        return (long) (SUB_COUNT + bucket % SUB_COUNT) << (exponent - SUB_BITS);
+    }
+
+    /**
+     * 桶中最大的值
+     * @param bucket 桶的下标
+     * @return 值
+     */
+    public static long upperBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+        return lowerBound(bucket) + (1L << (exponent - SUB_BITS)) - 1;
+    }
+}
@@ -0,0 +1,278 @@
+package com.namtah.game2048.engine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 引擎和存档的性能指标：按名字登记的耗时直方图（{@link Timer}）和计数器（{@link Counter}），
+ * 可以输出为文本或JSON，用于比较不同版本。
+ *
+ * 模拟器的工作线程、后台预算后继的线程和UI线程可能同时记录同一个指标，所以每个指标按线程分成几条（stripe），
+ * 线程按id落在其中一条上，不同的线程基本不会争用同一个原子变量；读取时再把各条加起来。
+ * 记录不分配内存，Timer的每条在第一次用到时才创建，单线程时只占一条的内存。
+ *
+ * 指标在开始时用{@link #timer(String)}、{@link #counter(String)}取得并保存下来，记录时不再按名字查找。
+ */
+public final class Metrics {
+
+    public static final String MOVE_LEFT = "move.left";                 //DataHelper向各方向滑动的耗时
+    public static final String MOVE_RIGHT = "move.right";
+    public static final String MOVE_TOP = "move.top";
+    public static final String MOVE_BOTTOM = "move.bottom";
+    public static final String CHECK_ACCESSIBILITY = "checkAccessibility";  //调用次数
+    public static final String CREATE_NEW_TILE = "createNewTile";
+    public static final String MOVES = "moves";                         //实际走了几步（不包括后台预先计算的后继）
+    public static final String SNAPSHOT_SUBMITS = "snapshot.submits";   //提交了几份存档
+    public static final String SNAPSHOT_WRITES = "snapshot.writes";     //实际写入了几次（连续提交时只写最后一份）
+    public static final String SNAPSHOT_WRITE = "snapshot.write";       //每次写入的耗时
+
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+    private static final int PADDING = 8;       //计数器的每条隔开8个long（64字节），不落在同一个缓存行上
+
+    private final Map<String, Timer> mTimers = new LinkedHashMap<>();
+    private final Map<String, Counter> mCounters = new LinkedHashMap<>();
+    private volatile long mStartNanos = System.nanoTime();     //开始统计的时间，用于计算每秒的次数
+
+    /**
+     * 取得某个名字的耗时直方图，没有时创建
+     * @param name 名字
+     * @return 耗时直方图
+     */
+    public synchronized Timer timer(String name) {
+        Timer timer = mTimers.get(name);
+        if (timer == null) {
+            timer = new Timer();
+            mTimers.put(name, timer);
+        }
+        return timer;
+    }
+
+    /**
+     * 取得某个名字的计数器，没有时创建
+     * @param name 名字
+     * @return 计数器
+     */
+    public synchronized Counter counter(String name) {
+        Counter counter = mCounters.get(name);
+        if (counter == null) {
+            counter = new Counter();
+            mCounters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * 清空所有指标，重新开始计算每秒的次数
+     */
+    public synchronized void reset() {
+        for (Timer timer : mTimers.values()) {
+            timer.reset();
+        }
+        for (Counter counter : mCounters.values()) {
+            counter.reset();
+        }
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * 从开始统计（或上次{@link #reset()}）到现在的时间
+     * @return 纳秒
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - mStartNanos;
+    }
+
+    /**
+     * 输出为文本，每个指标一行：耗时是微秒，计数器带每秒的次数
+     * @return 文本
+     */
+    public String toText() {
+        double seconds = getElapsedNanos() / 1e9;
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "elapsed %.3f s%n", seconds));
+        for (Map.Entry<String, Counter> entry : counters()) {
+            long count = entry.getValue().get();
+            builder.append(String.format(Locale.US, "%-20s %12d  %12.1f/s%n",
+                    entry.getKey(), count, seconds > 0 ? count / seconds : 0));
+        }
+        for (Map.Entry<String, Timer> entry : timers()) {
+            Histogram h = entry.getValue().snapshot();
+            builder.append(String.format(Locale.US,
+                    "%-20s %12d  mean %.3f  p50 %.3f  p90 %.3f  p99 %.3f  max %.3f us%n",
+                    entry.getKey(), h.getCount(), h.getMean() / 1e3, h.percentile(0.5) / 1e3,
+                    h.percentile(0.9) / 1e3, h.percentile(0.99) / 1e3, h.getMax() / 1e3));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 输出为JSON：{"elapsedNanos":…, "counters":{名字:次数}, "timers":{名字:{count, mean, p50, p90, p99, max}}}，耗时是纳秒
+     * @return JSON
+     */
+    public String toJson() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"elapsedNanos\":").append(getElapsedNanos()).append(",\"counters\":{");
+        boolean first = true;
+        for (Map.Entry<String, Counter> entry : counters()) {
+            if (!first) {
+                builder.append(',');
+            }
+            first = false;
+            appendName(builder, entry.getKey()).append(entry.getValue().get());
+        }
+        builder.append("},\"timers\":{");
+        first = true;
+        for (Map.Entry<String, Timer> entry : timers()) {
+            if (!first) {
+                builder.append(',');
+            }
+            first = false;
+            Histogram h = entry.getValue().snapshot();
+            appendName(builder, entry.getKey())
+                    .append("{\"count\":").append(h.getCount())
+                    .append(",\"mean\":").append(String.format(Locale.US, "%.1f", h.getMean()))
+                    .append(",\"p50\":").append(h.percentile(0.5))
+                    .append(",\"p90\":").append(h.percentile(0.9))
+                    .append(",\"p99\":").append(h.percentile(0.99))
+                    .append(",\"max\":").append(h.getMax())
+                    .append('}');
+        }
+        builder.append("}}");
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toText();
+    }
+
+    //写入JSON的字符串，名字中的引号和反斜杠需要转义
+    private static StringBuilder appendName(StringBuilder builder, String name) {
+        builder.append('"');
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+        return builder.append("\":");
+    }
+
+    private synchronized List<Map.Entry<String, Timer>> timers() {
+        return new ArrayList<>(mTimers.entrySet());
+    }
+
+    private synchronized List<Map.Entry<String, Counter>> counters() {
+        return new ArrayList<>(mCounters.entrySet());
+    }
+
+    //条数取不小于CPU核数的2的幂，最多16条
+    private static int stripes(int processors) {
+        int stripes = 1;
+        while (stripes < processors && stripes < 16) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    //当前线程落在第几条
+    private static int stripe() {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+
+    /**
+     * 耗时直方图（纳秒），每条是一个{@link Histogram}
+     */
+    public static final class Timer {
+
+        private final AtomicReferenceArray<Histogram> mStripes = new AtomicReferenceArray<>(STRIPES);
+
+        Timer() {
+        }
+
+        /**
+         * 记录一次耗时
+         * @param nanos 纳秒
+         */
+        public void record(long nanos) {
+            int index = stripe();
+            Histogram histogram = mStripes.get(index);
+            if (histogram == null) {
+                mStripes.compareAndSet(index, null, new Histogram());
+                histogram = mStripes.get(index);
+            }
+            histogram.record(nanos);
+        }
+
+        /**
+         * 记录从start到现在的耗时
+         * @param startNanos 开始时的{@link System#nanoTime()}
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * 把各条合并成一个新的直方图
+         * @return 直方图
+         */
+        public Histogram snapshot() {
+            Histogram merged = new Histogram();
+            for (int i = 0; i < STRIPES; i++) {
+                Histogram histogram = mStripes.get(i);
+                if (histogram != null) {
+                    merged.add(histogram);
+                }
+            }
+            return merged;
+        }
+
+        void reset() {
+            for (int i = 0; i < STRIPES; i++) {
+                Histogram histogram = mStripes.get(i);
+                if (histogram != null) {
+                    histogram.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * 计数器，每条是隔开一个缓存行的原子变量
+     */
+    public static final class Counter {
+
+        private final AtomicLongArray mStripes = new AtomicLongArray(STRIPES * PADDING);
+
+        Counter() {
+        }
+
+        public void increment() {
+            mStripes.incrementAndGet(stripe() * PADDING);
+        }
+
+        public void add(long delta) {
+            mStripes.addAndGet(stripe() * PADDING, delta);
+        }
+
+        public long get() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += mStripes.get(i * PADDING);
+            }
+            return sum;
+        }
+
+        void reset() {
+            for (int i = 0; i < STRIPES; i++) {
+                mStripes.set(i * PADDING, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package com.namtah.game2048.engine;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 走法日志，记录每一步的方向以及随后生成的新瓷砖（位置和数值），支持无限次撤销和重做。
+ *
+ * 每步在文件中只占4个字节（1个字节的类型和3个字节的走法），不保存整个面板；每隔{@link #KEYFRAME_INTERVAL}步保存一个关键帧（面板和分数）。
+ * 第i个关键帧就是第i * KEYFRAME_INTERVAL步的，撤销和重做按步数直接找到不晚于目标步的最近关键帧开始重放，
+ * 最多重放KEYFRAME_INTERVAL - 1步，与对局长度无关。
+ * 内存中只有最近{@link #RECENT_KEYFRAMES}个关键帧保留面板，更早的每{@link #SPARSE_KEYFRAMES}个只保留一个，
+ * 大面板的长对局占用的内存减少到约1/SPARSE_KEYFRAMES，撤销到很早的步时最多多重放(SPARSE_KEYFRAMES - 1) * KEYFRAME_INTERVAL步。
+ * 撤销后再走新的一步会丢弃之后可以重做的步。
+ *
+ * 文件只追加不修改，由后台线程写入，进程被杀死后用{@link #MoveJournal(File)}重新读出，
+ * 末尾写了一半的记录会被截掉。记录类型：
+ * <pre>
+ * TYPE_MOVE      byte类型, 3个字节（大端，共4个字节）：高15位生成的位置（row * number + column），中间7位生成的指数，低2位方向
+ * TYPE_KEYFRAME  byte类型, int 步数, long 分数, byte 阶数, byte[阶数 * 阶数] 瓷砖指数
+ * TYPE_CURSOR    byte类型, int 步数（撤销或重做到第几步）
+ * </pre>
+ * 步数为0的关键帧表示新的对局，读取时丢弃之前的所有记录。
+ */
+public class MoveJournal {
+
+    public static final int KEYFRAME_INTERVAL = 32;
+    private static final int RECENT_KEYFRAMES = 16;     //最近几个关键帧全部保留面板
+    private static final int SPARSE_KEYFRAMES = 8;      //更早的关键帧每几个保留一个面板
+
+    private static final int TYPE_MOVE = 1;
+    private static final int TYPE_KEYFRAME = 2;
+    private static final int TYPE_CURSOR = 3;
+    private static final int MOVE_SIZE = 1 + 3;
+    private static final int CURSOR_SIZE = 1 + 4;
+    private static final int KEYFRAME_HEADER_SIZE = 1 + 4 + 8 + 1;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    //一个关键帧：第step步之后的面板和分数，较早的关键帧面板可能已被释放（为null）
+    private static class Keyframe {
+        final int step;
+        ByteBoard board;
+        final long score;
+
+        Keyframe(int step, ByteBoard board, long score) {
+            this.step = step;
+            this.board = board;
+            this.score = score;
+        }
+    }
+
+    private final File mFile;
+    private final List<Keyframe> mKeyframes = new ArrayList<>();    //第i个是第i * KEYFRAME_INTERVAL步的
+    private int[] mMoves = new int[256];            //每步：低2位方向，第2~8位生成的指数，第9~23位生成的位置
+    private int mSize;                              //记录了多少步（包括可以重做的）
+    private int mStep;                              //当前在第几步
+    private long mScore;                            //当前的分数
+    private ByteBoard mBoard;                       //当前的面板，只在撤销、重做和读取时使用
+    private FileOutputStream mOut;
+    private ExecutorService mExecutor;
+
+    /**
+     * 打开日志文件，已有的记录会被读出并重放到最后的位置
+     * @param file 日志文件
+     * @throws IOException 读取或打开失败
+     */
+    public MoveJournal(File file) throws IOException {
+        mFile = file;
+        long length = file.exists() ? read() : 0;
+        mOut = new FileOutputStream(file, true);
+        if (mOut.getChannel().size() > length) {
+            mOut.getChannel().truncate(length);
+        }
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "MoveJournal");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static int encode(Direction direction, int cell, int exponent) {
+        return cell << 9 | exponent << 2 | direction.ordinal();
+    }
+
+    private static Direction direction(int move) {
+        return DIRECTIONS[move & 3];
+    }
+
+    private static int exponent(int move) {
+        return (move >>> 2) & 0x7f;
+    }
+
+    private static int cell(int move) {
+        return move >>> 9;
+    }
+
+    /**
+     * 开始新的对局，以当前面板作为第0步，之前的记录全部作废
+     * @param helper 当前面板
+     * @param score 当前分数
+     */
+    public void reset(DataHelper helper, long score) {
+        mKeyframes.clear();
+        mSize = mStep = 0;
+        mScore = score;
+        mBoard = helper.toByteBoard();
+        addKeyframe(new Keyframe(0, new ByteBoard(mBoard), score));
+        final byte[] record = keyframeRecord(0, mBoard, score);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    //新对局之前的记录不再需要，文件从头写起
+                    mOut.close();
+                    mOut = new FileOutputStream(mFile, false);
+                    mOut.write(record);
+                } catch (IOException e) {
+                    //写不进去就只保留内存中的记录
+                }
+            }
+        });
+    }
+
+    /**
+     * 记录一步，应在滑动并生成新瓷砖之后调用
+     * @param direction 方向
+     * @param helper 生成新瓷砖后的面板，见{@link DataHelper#getNewTile(int)}
+     */
+    public void record(Direction direction, DataHelper helper) {
+        Point p = helper.getNewTile(0);
+        int number = helper.getNumber();
+        int move = encode(direction, p.x * number + p.y,
+                Integer.numberOfTrailingZeros(helper.get(p.x, p.y)));
+        append(push(move, helper.getStepScore(), helper));
+    }
+
+    /**
+     * 一次记录多步，例如{@link DataHelper#fastForward(Direction[], int[], int[], int, int[])}之后，只提交一次写入
+     * @param directions 每步的方向
+     * @param spawnCells 每步生成的位置（row * number + column）
+     * @param spawnValues 每步生成的数值
+     * @param stepScores 每步的分数
+     * @param count 步数
+     */
+    public void recordAll(Direction[] directions, int[] spawnCells, int[] spawnValues, int[] stepScores, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(count * MOVE_SIZE);
+        for (int k = 0; k < count; k++) {
+            int move = encode(directions[k], spawnCells[k], Integer.numberOfTrailingZeros(spawnValues[k]));
+            byte[] record = push(move, stepScores[k], null);
+            out.write(record, 0, record.length);
+        }
+        append(out.toByteArray());
+    }
+
+    //把一步加入内存中的记录，返回要写入文件的字节；helper为null时关键帧的面板通过重放得到
+    private byte[] push(int move, int stepScore, DataHelper helper) {
+        if (mStep == mMoves.length) {
+            int[] moves = new int[mMoves.length * 2];
+            System.arraycopy(mMoves, 0, moves, 0, mStep);
+            mMoves = moves;
+        }
+        mMoves[mStep++] = move;
+        mSize = mStep;
+        mScore += stepScore;
+        mBoard = null;
+        dropKeyframesAfter(mStep - 1);
+
+        byte[] record;
+        if (mStep % KEYFRAME_INTERVAL == 0) {
+            ByteBoard board;
+            if (helper != null) {
+                board = helper.toByteBoard();
+            } else {
+                replayTo(mStep);
+                board = new ByteBoard(mBoard);
+            }
+            addKeyframe(new Keyframe(mStep, board, mScore));
+            byte[] keyframe = keyframeRecord(mStep, board, mScore);
+            record = new byte[MOVE_SIZE + keyframe.length];
+            System.arraycopy(keyframe, 0, record, MOVE_SIZE, keyframe.length);
+        } else {
+            record = new byte[MOVE_SIZE];
+        }
+        record[0] = TYPE_MOVE;
+        record[1] = (byte) (move >>> 16);
+        record[2] = (byte) (move >>> 8);
+        record[3] = (byte) move;
+        return record;
+    }
+
+    public boolean canUndo() {
+        return mStep > 0;
+    }
+
+    public boolean canRedo() {
+        return mStep < mSize;
+    }
+
+    /**
+     * 撤销一步，把撤销后的面板写入helper
+     * @param helper 面板
+     * @return 是否撤销了
+     */
+    public boolean undo(DataHelper helper) {
+        return canUndo() && moveTo(mStep - 1, helper);
+    }
+
+    /**
+     * 重做一步，把重做后的面板写入helper
+     * @param helper 面板
+     * @return 是否重做了
+     */
+    public boolean redo(DataHelper helper) {
+        return canRedo() && moveTo(mStep + 1, helper);
+    }
+
+    private boolean moveTo(int step, DataHelper helper) {
+        replayTo(step);
+        helper.setByteBoard(mBoard);
+        append(new byte[]{TYPE_CURSOR, (byte) (step >>> 24), (byte) (step >>> 16), (byte) (step >>> 8), (byte) step});
+        return true;
+    }
+
+    //从最近的关键帧重放到第step步
+    private void replayTo(int step) {
+        Keyframe keyframe = keyframeBefore(step);
+        ByteBoard board = new ByteBoard(keyframe.board);
+        long score = keyframe.score;
+        int number = board.getNumber();
+        for (int s = keyframe.step; s < step; s++) {
+            int move = mMoves[s];
+            board.move(direction(move));
+            score += board.getStepScore();
+            board.set(cell(move) / number, cell(move) % number, exponent(move));
+        }
+        mBoard = board;
+        mScore = score;
+        mStep = step;
+    }
+
+    /**
+     * 当前的面板，与最后一次写入DataHelper的相同
+     * @return 面板的副本，没有任何记录时返回null
+     */
+    public ByteBoard getBoard() {
+        if (mKeyframes.isEmpty()) {
+            return null;
+        }
+        if (mBoard == null) {
+            replayTo(mStep);
+        }
+        return new ByteBoard(mBoard);
+    }
+
+    public long getScore() {
+        return mScore;
+    }
+
+    public int getStep() {
+        return mStep;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * 写完已提交的记录后关闭文件
+     * @param timeoutMillis 最多等待多久（毫秒），0表示不等待
+     */
+    public void close(long timeoutMillis) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mOut.close();
+                } catch (IOException e) {
+                    //关闭失败也没有什么可做的
+                }
+            }
+        });
+        mExecutor.shutdown();
+        if (timeoutMillis > 0) {
+            try {
+                mExecutor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    //不晚于第step步、保留了面板的最近关键帧，第0个关键帧总是保留面板
+    private Keyframe keyframeBefore(int step) {
+        int index = Math.min(step / KEYFRAME_INTERVAL, mKeyframes.size() - 1);
+        Keyframe keyframe = mKeyframes.get(index);
+        while (keyframe.board == null) {
+            keyframe = mKeyframes.get(--index);
+        }
+        return keyframe;
+    }
+
+    //追加下一个关键帧，同时释放已经不算最近的那个关键帧的面板
+    private void addKeyframe(Keyframe keyframe) {
+        mKeyframes.add(keyframe);
+        int old = mKeyframes.size() - 1 - RECENT_KEYFRAMES;
+        if (old > 0 && old % SPARSE_KEYFRAMES != 0) {
+            mKeyframes.get(old).board = null;
+        }
+    }
+
+    private void dropKeyframesAfter(int step) {
+        int size = step / KEYFRAME_INTERVAL + 1;
+        if (mKeyframes.size() > size) {
+            mKeyframes.subList(size, mKeyframes.size()).clear();
+        }
+    }
+
+    private void append(final byte[] record) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mOut.write(record);
+                } catch (IOException e) {
+                    //写不进去就只保留内存中的记录
+                }
+            }
+        });
+    }
+
+    private static byte[] keyframeRecord(int step, ByteBoard board, long score) {
+        byte[] cells = board.getCells();
+        byte[] record = new byte[KEYFRAME_HEADER_SIZE + cells.length];
+        record[0] = TYPE_KEYFRAME;
+        for (int i = 0; i < 4; i++) {
+            record[1 + i] = (byte) (step >>> (24 - i * 8));
+        }
+        for (int i = 0; i < 8; i++) {
+            record[5 + i] = (byte) (score >>> (56 - i * 8));
+        }
+        record[13] = (byte) board.getNumber();
+        System.arraycopy(cells, 0, record, KEYFRAME_HEADER_SIZE, cells.length);
+        return record;
+    }
+
+    //读出已有的记录，返回完整记录的总长度，文件末尾写了一半的记录不算在内
+    private long read() throws IOException {
+        long length = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        try {
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    break;
+                }
+                if (type == TYPE_MOVE) {
+                    int move = in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+                    length += MOVE_SIZE;
+                    if (mKeyframes.isEmpty()) {
+                        continue;
+                    }
+                    if (mStep % KEYFRAME_INTERVAL == 0 && mStep / KEYFRAME_INTERVAL == mKeyframes.size()) {
+                        //上一步的关键帧没有写完整，重放补上，之后的关键帧才能按步数找到
+                        replayTo(mStep);
+                        addKeyframe(new Keyframe(mStep, new ByteBoard(mBoard), mScore));
+                    }
+                    if (mStep == mMoves.length) {
+                        int[] moves = new int[mMoves.length * 2];
+                        System.arraycopy(mMoves, 0, moves, 0, mStep);
+                        mMoves = moves;
+                    }
+                    mMoves[mStep++] = move;
+                    mSize = mStep;
+                    dropKeyframesAfter(mStep - 1);
+                } else if (type == TYPE_KEYFRAME) {
+                    int step = in.readInt();
+                    long score = in.readLong();
+                    ByteBoard board = new ByteBoard(in.readUnsignedByte());
+                    in.readFully(board.getCells());
+                    length += KEYFRAME_HEADER_SIZE + board.getCells().length;
+                    if (step == 0) {
+                        mKeyframes.clear();
+                        mSize = mStep = 0;
+                    }
+                    if (step == mStep && step == mKeyframes.size() * KEYFRAME_INTERVAL) {
+                        addKeyframe(new Keyframe(step, board, score));
+                    }
+                } else if (type == TYPE_CURSOR) {
+                    int step = in.readInt();
+                    length += CURSOR_SIZE;
+                    if (step >= 0 && step <= mSize) {
+                        mStep = step;
+                    }
+                } else {
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            //进程在写一条记录时被杀死
+        } finally {
+            in.close();
+        }
+        if (!mKeyframes.isEmpty()) {
+            replayTo(mStep);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,188 @@
+package com.namtah.game2048.engine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 4阶面板的n元组网络估值函数，估计一个后态（滑动之后、生成新瓷砖之前的面板）今后还能得到的分数。
+ *
+ * 网络由5张表组成，每张表以4块瓷砖的指数（各4位，见{@link Board4}）拼成的16位为下标：
+ * 外侧的一行、内侧的一行、角上的2x2、边上的2x2、中间的2x2。面板的8种对称（旋转和镜像）共用这些表，
+ * 估值是8种对称下5个元组的权重之和，共40项。
+ *
+ * 权重按表依次存放在一个连续的float数组中（{@link FloatBuffer}），文件格式为（小端）：
+ * <pre>
+ * int MAGIC, int VERSION, int 表数, int 每张表的大小, float[表数 * 每张表的大小] 权重
+ * </pre>
+ * 文件可以直接用{@link #map(File, boolean)}映射进内存，不需要解析；训练时多个线程无锁地更新权重（Hogwild），
+ * 偶尔丢失的更新对训练没有影响。
+ */
+public final class NTupleNetwork {
+
+    static final int MAGIC = 0x344e544e;            //"NTN4"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int TABLES = 5;
+    static final int TABLE_SIZE = 1 << 16;
+    static final int WEIGHTS = TABLES * TABLE_SIZE;
+
+    //各张表在权重数组中的起点
+    private static final int ROW_OUTER = 0;
+    private static final int ROW_INNER = TABLE_SIZE;
+    private static final int SQUARE_CORNER = 2 * TABLE_SIZE;
+    private static final int SQUARE_EDGE = 3 * TABLE_SIZE;
+    private static final int SQUARE_CENTER = 4 * TABLE_SIZE;
+
+    private final ByteBuffer mBytes;                //权重部分的字节，文件映射时是MappedByteBuffer的一段
+    private final FloatBuffer mWeights;
+    private final MappedByteBuffer mMapped;         //可写映射时用于写回文件，否则为null
+
+    private NTupleNetwork(ByteBuffer bytes, MappedByteBuffer mapped) {
+        mBytes = bytes;
+        mWeights = bytes.asFloatBuffer();
+        mMapped = mapped;
+    }
+
+    /**
+     * 在内存中创建权重全为0的网络
+     * @return 网络
+     */
+    public static NTupleNetwork allocate() {
+        return new NTupleNetwork(ByteBuffer.allocateDirect(WEIGHTS * 4).order(ByteOrder.LITTLE_ENDIAN), null);
+    }
+
+    /**
+     * 把权重文件映射进内存。可写时对权重的更新直接写入文件（见{@link #flush()}），文件不存在时创建权重全为0的文件
+     * @param file 权重文件
+     * @param writable 是否可写
+     * @return 网络
+     * @throws IOException 文件不存在（只读时）、格式不对或映射失败
+     */
+    public static NTupleNetwork map(File file, boolean writable) throws IOException {
+        if (writable && !file.exists()) {
+            allocate().save(file);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = HEADER_SIZE + WEIGHTS * 4L;
+            if (channel.size() != size) {
+                throw new IOException(file + " has " + channel.size() + " bytes, expected " + size);
+            }
+            MappedByteBuffer mapped = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION
+                    || mapped.getInt(8) != TABLES || mapped.getInt(12) != TABLE_SIZE) {
+                throw new IOException(file + " is not an n-tuple network of version " + VERSION);
+            }
+            mapped.position(HEADER_SIZE);
+            ByteBuffer bytes = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+            return new NTupleNetwork(bytes, writable ? mapped : null);
+        } finally {
+            //映射在通道关闭后仍然有效
+            raf.close();
+        }
+    }
+
+    /**
+     * 写入文件，先写临时文件再重命名
+     * @param file 权重文件
+     * @throws IOException 写入失败
+     */
+    public void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(TABLES).putInt(TABLE_SIZE).flip();
+            FileChannel channel = out.getChannel();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            ByteBuffer weights = mBytes.duplicate();
+            weights.clear();
+            while (weights.hasRemaining()) {
+                channel.write(weights);
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Can not rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * 可写映射时把更新过的权重写回文件，否则什么也不做
+     */
+    public void flush() {
+        if (mMapped != null) {
+            mMapped.force();
+        }
+    }
+
+    /**
+     * 估值：后态今后还能得到的分数
+     * @param board 后态的位棋盘
+     * @return 估值
+     */
+    public float evaluate(long board) {
+        long t = Board4.transpose(board);
+        return sum(board) + sum(Board4.mirror(board)) + sum(Board4.flip(board)) + sum(Board4.flip(Board4.mirror(board)))
+                + sum(t) + sum(Board4.mirror(t)) + sum(Board4.flip(t)) + sum(Board4.flip(Board4.mirror(t)));
+    }
+
+    /**
+     * 把所有40项权重各加上delta，TD学习中delta = 学习率 * 误差
+     * @param board 后态的位棋盘
+     * @param delta 每项权重的增量
+     */
+    public void update(long board, float delta) {
+        long t = Board4.transpose(board);
+        add(board, delta);
+        add(Board4.mirror(board), delta);
+        add(Board4.flip(board), delta);
+        add(Board4.flip(Board4.mirror(board)), delta);
+        add(t, delta);
+        add(Board4.mirror(t), delta);
+        add(Board4.flip(t), delta);
+        add(Board4.flip(Board4.mirror(t)), delta);
+    }
+
+    //一种对称下5个元组的权重之和
+    private float sum(long b) {
+        FloatBuffer w = mWeights;
+        return w.get(ROW_OUTER + ((int) b & 0xffff))
+                + w.get(ROW_INNER + ((int) (b >>> 16) & 0xffff))
+                + w.get(SQUARE_CORNER + square(b, 0))
+                + w.get(SQUARE_EDGE + square(b, 4))
+                + w.get(SQUARE_CENTER + square(b, 20));
+    }
+
+    private void add(long b, float delta) {
+        increment(ROW_OUTER + ((int) b & 0xffff), delta);
+        increment(ROW_INNER + ((int) (b >>> 16) & 0xffff), delta);
+        increment(SQUARE_CORNER + square(b, 0), delta);
+        increment(SQUARE_EDGE + square(b, 4), delta);
+        increment(SQUARE_CENTER + square(b, 20), delta);
+    }
+
+    //不加锁，与其它线程同时更新同一项时可能丢失一次更新
+    private void increment(int index, float delta) {
+        mWeights.put(index, mWeights.get(index) + delta);
+    }
+
+    //从第shift位开始的2x2：本行相邻两格和下一行相同位置的两格
+    private static int square(long b, int shift) {
+        long x = b >>> shift;
+        return (int) (x & 0xff) | (int) ((x >>> 16) & 0xff) << 8;
+    }
+}
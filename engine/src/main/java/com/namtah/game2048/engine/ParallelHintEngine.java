@@ -0,0 +1,283 @@
+package com.namtah.game2048.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 多线程版本的{@link HintEngine}，估值和搜索算法完全相同，结果也用{@link HintEngine.Hint}返回。
+ *
+ * 根节点按四个方向拆分成子任务；剩余深度不小于{@link #SPLIT_DEPTH}的机会节点
+ * 再按所有空格（以及生成2或4）拆分，交给{@link ForkJoinPool}去窃取执行，更深的节点在各自线程内递归。
+ * 所有线程共享一个{@link ConcurrentTranspositionTable}，同样以规范形式（见{@link Symmetry}）为键。每个任务自己统计节点数，合并时相加，不争用同一个计数器。
+ *
+ * {@link ForkJoinPool}在Android 5.0（API 21）才加入，在应用中使用前需要检查系统版本。
+ */
+public class ParallelHintEngine {
+
+    static final int SPLIT_DEPTH = 3;                       //剩余深度不小于它的机会节点拆分成并行子任务
+    private static final int MAX_DEPTH = 12;
+    private static final int CHECK_INTERVAL = 0xff;          //每隔多少个节点检查一次时间和取消
+
+    private final ForkJoinPool mPool;
+    private final ConcurrentTranspositionTable mTable;
+    private final Object mSearchLock = new Object();        //同一时刻只进行一次搜索
+    private volatile int mGeneration;               //每次取消加1，搜索发现与开始时不同就结束
+    private volatile boolean mAborted;              //本次迭代已超时或被取消
+    private long mDeadline;
+    private int mSearchGeneration;
+
+    /**
+     * @param parallelism 搜索线程数
+     */
+    public ParallelHintEngine(int parallelism) {
+        this(new ForkJoinPool(parallelism), new ConcurrentTranspositionTable(20));
+    }
+
+    public ParallelHintEngine(ForkJoinPool pool, ConcurrentTranspositionTable table) {
+        mPool = pool;
+        mTable = table;
+    }
+
+    public int getParallelism() {
+        return mPool.getParallelism();
+    }
+
+    /**
+     * 取消正在进行的搜索，可以在任意线程调用
+     */
+    public void cancel() {
+        mGeneration++;
+    }
+
+    /**
+     * 取消搜索并结束所有搜索线程
+     */
+    public void shutdown() {
+        cancel();
+        mPool.shutdownNow();
+    }
+
+    /**
+     * 在线程池中搜索，当前线程等待结果
+     * @param board 位棋盘
+     * @param budgetNanos 时间预算（纳秒）
+     * @return 搜索结果，被取消时返回null
+     */
+    public HintEngine.Hint searchNow(long board, long budgetNanos) {
+        synchronized (mSearchLock) {
+            return searchLocked(board, budgetNanos, mGeneration, 1, MAX_DEPTH);
+        }
+    }
+
+    /**
+     * 搜索到固定深度，不限时间，用于与{@link HintEngine#searchDepth(long, int)}比较
+     * @param board 位棋盘
+     * @param depth 搜索深度
+     * @return 搜索结果，被取消时返回null
+     */
+    public HintEngine.Hint searchDepth(long board, int depth) {
+        synchronized (mSearchLock) {
+            return searchLocked(board, Long.MAX_VALUE / 4, mGeneration, depth, depth);
+        }
+    }
+
+    private HintEngine.Hint searchLocked(long board, long budgetNanos, int generation, int minDepth, int maxDepth) {
+        long start = System.nanoTime();
+        mDeadline = start + budgetNanos;
+        mSearchGeneration = generation;
+
+        HintEngine.Hint hint = new HintEngine.Hint();
+        long nodes = 0;
+        for (int depth = minDepth; depth <= maxDepth; depth++) {
+            mAborted = false;
+            Node[] roots = new Node[4];
+            List<Node> tasks = new ArrayList<>(4);
+            for (Direction d : HintEngine.DIRECTIONS) {
+                long moved = Board4.move(board, d);
+                if (moved != board) {
+                    roots[d.ordinal()] = new Node(moved, depth - 1, 1f, true);
+                    tasks.add(roots[d.ordinal()]);
+                }
+            }
+            mPool.invoke(new Fork(tasks));
+            for (Node n : tasks) {
+                nodes += n.nodes;
+            }
+            if (mAborted) {
+                break;
+            }
+            for (Direction d : HintEngine.DIRECTIONS) {
+                Node n = roots[d.ordinal()];
+                hint.values[d.ordinal()] = n == null ? Float.NEGATIVE_INFINITY : n.value;
+            }
+            hint.depth = depth;
+            if (System.nanoTime() > mDeadline) {
+                break;
+            }
+        }
+        if (hint.depth == 0) {
+            hint.evaluateOnly(board);
+        }
+        hint.pickBest();
+        hint.nodes = nodes;
+        hint.elapsedNanos = System.nanoTime() - start;
+        return generation == mGeneration ? hint : null;
+    }
+
+    /**
+     * 测量并行搜索相对单线程{@link HintEngine}的加速比，每个局面都从空的置换表开始搜索
+     * @param boards 测试用的位棋盘
+     * @param depth 搜索深度
+     * @param threads 要测试的线程数，例如1, 2, 4, 8
+     * @return 与threads一一对应的加速比（单线程耗时 / 并行耗时）
+     */
+    public static double[] measureSpeedup(long[] boards, int depth, int... threads) {
+        TranspositionTable table = new TranspositionTable(20);
+        HintEngine serial = new HintEngine(table);
+        long serialNanos = 0;
+        for (long board : boards) {
+            table.clear();
+            long start = System.nanoTime();
+            serial.searchDepth(board, depth);
+            serialNanos += System.nanoTime() - start;
+        }
+        double[] speedups = new double[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            ConcurrentTranspositionTable shared = new ConcurrentTranspositionTable(20);
+            ParallelHintEngine engine = new ParallelHintEngine(new ForkJoinPool(threads[i]), shared);
+            long parallelNanos = 0;
+            for (long board : boards) {
+                shared.clear();
+                long start = System.nanoTime();
+                engine.searchDepth(board, depth);
+                parallelNanos += System.nanoTime() - start;
+            }
+            engine.shutdown();
+            speedups[i] = parallelNanos == 0 ? 0 : (double) serialNanos / parallelNanos;
+        }
+        return speedups;
+    }
+
+    //同时执行一组节点
+    private static class Fork extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<Node> mTasks;
+
+        Fork(List<Node> tasks) {
+            mTasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(mTasks);
+        }
+    }
+
+    //一个搜索任务，从一个机会节点或最大节点开始递归
+    private class Node extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final long mBoard;
+        private final int mDepth;
+        private final float mProbability;
+        private final boolean mChance;
+        float value;
+        long nodes;                 //此任务及其子任务搜索的节点数
+        boolean stopped;            //发现超时或取消后不再展开，结果作废
+
+        Node(long board, int depth, float probability, boolean chance) {
+            mBoard = board;
+            mDepth = depth;
+            mProbability = probability;
+            mChance = chance;
+        }
+
+        @Override
+        protected void compute() {
+            value = mChance ? chance(mBoard, mDepth, mProbability) : max(mBoard, mDepth, mProbability);
+        }
+
+        private float chance(long board, int depth, float probability) {
+            if (depth == 0 || probability < HintEngine.PROBABILITY_CUTOFF) {
+                return HintEngine.evaluate(board);
+            }
+            long key = Symmetry.canonical(board);       //对称的局面期望相同，共用一项
+            float cached = mTable.get(key, depth);
+            if (!Float.isNaN(cached)) {
+                return cached;
+            }
+            int empty = Board4.countEmpty(board);
+            float each = probability / empty;
+            float sum = depth >= SPLIT_DEPTH
+                    ? forkChance(board, depth, each)
+                    : chanceSerial(board, depth, each);
+            if (stopped) {
+                return 0;
+            }
+            float value = sum / empty;
+            mTable.put(key, depth, value);
+            return value;
+        }
+
+        private float chanceSerial(long board, int depth, float each) {
+            float sum = 0;
+            long tile = 1;
+            for (long rest = board; tile != 0; rest >>>= 4, tile <<= 4) {
+                if ((rest & 0xf) == 0) {
+                    sum += HintEngine.PROBABILITY_TWO * max(board | tile, depth - 1, each * HintEngine.PROBABILITY_TWO);
+                    sum += HintEngine.PROBABILITY_FOUR * max(board | tile << 1, depth - 1, each * HintEngine.PROBABILITY_FOUR);
+                }
+            }
+            return sum;
+        }
+
+        //每个空格生成2和4各是一个子任务
+        private float forkChance(long board, int depth, float each) {
+            List<Node> tasks = new ArrayList<>(32);
+            long tile = 1;
+            for (long rest = board; tile != 0; rest >>>= 4, tile <<= 4) {
+                if ((rest & 0xf) == 0) {
+                    tasks.add(new Node(board | tile, depth - 1, each * HintEngine.PROBABILITY_TWO, false));
+                    tasks.add(new Node(board | tile << 1, depth - 1, each * HintEngine.PROBABILITY_FOUR, false));
+                }
+            }
+            invokeAll(tasks);
+            float sum = 0;
+            for (int i = 0; i < tasks.size(); i += 2) {
+                Node two = tasks.get(i), four = tasks.get(i + 1);
+                sum += HintEngine.PROBABILITY_TWO * two.value + HintEngine.PROBABILITY_FOUR * four.value;
+                nodes += two.nodes + four.nodes;
+                stopped |= two.stopped | four.stopped;
+            }
+            return sum;
+        }
+
+        private float max(long board, int depth, float probability) {
+            if (stopped) {
+                return 0;
+            }
+            if ((++nodes & CHECK_INTERVAL) == 0) {
+                if (mAborted) {
+                    stopped = true;
+                } else if (System.nanoTime() > mDeadline || mSearchGeneration != mGeneration) {
+                    mAborted = stopped = true;
+                }
+                if (stopped) {
+                    return 0;
+                }
+            }
+            float best = 0;
+            for (Direction d : HintEngine.DIRECTIONS) {
+                long moved = Board4.move(board, d);
+                if (moved != board) {
+                    float value = chance(moved, depth, probability);
+                    if (value > best) {
+                        best = value;
+                    }
+                }
+            }
+            return best;
+        }
+    }
+}
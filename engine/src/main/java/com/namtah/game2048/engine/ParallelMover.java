@@ -0,0 +1,264 @@
+package com.namtah.game2048.engine;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 大面板（阶数不小于{@link #MIN_NUMBER}）的并行滑动，交给{@link DataHelper#setParallelMover(ParallelMover)}使用。
+ *
+ * 左右滑动时各行互不影响，上下滑动时各列互不影响，所以按连续的若干行（列）拆分成条带，交给{@link ForkJoinPool}执行。
+ * 每个条带有自己的分数、最大值和动画增量，全部完成后按条带顺序合并，结果（包括动画增量的顺序）与逐行处理完全相同，
+ * 线程之间不争用任何计数器。滑动后的统计（空格、相邻相等的对数等）也由各条带在滑动后顺便统计自己的部分，
+ * 相加后只需要再补上跨越条带边界的相邻格，整个一步只有一次拆分与合并。每行的空格数也一起统计，生成新瓷砖时不必扫描整个面板。
+ *
+ * 此类不是线程安全的，{@link DataHelper}在它上面同步，多个DataHelper可以共用一个。
+ * {@link ForkJoinPool}在Android 5.0（API 21）才加入，在应用中使用前需要检查系统版本。
+ */
+public class ParallelMover {
+
+    public static final int MIN_NUMBER = 32;                //阶数不小于它才值得拆分
+    private static final int MIN_LINES = 8;                 //每个条带至少几行（列）
+    private static final int STRIPES_PER_THREAD = 4;        //条带数是线程数的几倍，用来平衡各条带的工作量
+
+    private final ForkJoinPool mPool;
+    private Stripe[] mStripes = new Stripe[0];
+
+    //最近一次move()的结果
+    int stepScore, stepMax;
+    final Counts counts = new Counts();             //滑动后整个面板的统计
+
+    /**
+     * @param parallelism 线程数
+     */
+    public ParallelMover(int parallelism) {
+        this(new ForkJoinPool(parallelism));
+    }
+
+    public ParallelMover(ForkJoinPool pool) {
+        mPool = pool;
+    }
+
+    public int getParallelism() {
+        return mPool.getParallelism();
+    }
+
+    /**
+     * 结束所有线程
+     */
+    public void shutdown() {
+        mPool.shutdownNow();
+    }
+
+    /**
+     * 并行滑动，之后stepScore、stepMax是这一步的结果，counts是滑动后整个面板的统计
+     * @param tiles 瓷砖数值数组，直接修改
+     * @param direction 方向
+     * @param out 动画增量，按逐行处理的顺序追加
+     * @return 面板是否发生变化
+     */
+    boolean move(int[][] tiles, Direction direction, Transitions out) {
+        final Stripe[] stripes = split(tiles, direction);
+        mPool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(stripes);
+            }
+        });
+        boolean hasChanged = false;
+        stepScore = stepMax = 0;
+        counts.clear(tiles.length);
+        for (Stripe stripe : stripes) {
+            hasChanged |= stripe.changed;
+            stepScore += stripe.score;
+            stepMax = Math.max(stepMax, stripe.max);
+            out.addAll(stripe.transitions);
+            counts.add(stripe.counts);
+        }
+        //补上跨越条带边界的相邻格：行条带之间上下相邻，列条带之间左右相邻
+        boolean rows = direction == Direction.LEFT || direction == Direction.RIGHT;
+        int number = tiles.length;
+        for (int s = 1; s < stripes.length; s++) {
+            int line = stripes[s].from;
+            for (int k = 0; k < number; k++) {
+                if (rows) {
+                    counts.pair(tiles[line - 1][k], tiles[line][k], false);
+                } else {
+                    counts.pair(tiles[k][line - 1], tiles[k][line], true);
+                }
+            }
+        }
+        return hasChanged;
+    }
+
+    //按阶数和线程数准备好条带
+    private Stripe[] split(int[][] tiles, Direction direction) {
+        int number = tiles.length;
+        int count = Math.max(1, Math.min(mPool.getParallelism() * STRIPES_PER_THREAD, number / MIN_LINES));
+        if (mStripes.length != count) {
+            mStripes = new Stripe[count];
+            for (int s = 0; s < count; s++) {
+                mStripes[s] = new Stripe();
+            }
+        }
+        for (int s = 0; s < count; s++) {
+            Stripe stripe = mStripes[s];
+            stripe.reinitialize();
+            stripe.tiles = tiles;
+            stripe.direction = direction;
+            stripe.from = number * s / count;
+            stripe.to = number * (s + 1) / count;
+        }
+        return mStripes;
+    }
+
+    /**
+     * 面板的统计，含义与{@link DataHelper}中的同名统计相同
+     */
+    static final class Counts {
+        int empty;                          //空格数
+        int[] rowEmpty = new int[0];        //每行的空格数
+        int pairsH, pairsV;                 //左右、上下相邻且相等的瓷砖对数
+        final int[] gaps = new int[4];      //下标为方向，该方向上紧挨着空格的瓷砖数
+
+        //清空，每行的空格数按阶数准备好
+        void clear(int number) {
+            if (rowEmpty.length != number) {
+                rowEmpty = new int[number];
+            } else {
+                for (int i = 0; i < number; i++) {
+                    rowEmpty[i] = 0;
+                }
+            }
+            empty = pairsH = pairsV = 0;
+            for (int d = 0; d < gaps.length; d++) {
+                gaps[d] = 0;
+            }
+        }
+
+        //每个条带统计的是自己的格子在各行中的空格数，逐行相加
+        void add(Counts other) {
+            empty += other.empty;
+            for (int i = 0; i < rowEmpty.length; i++) {
+                rowEmpty[i] += other.rowEmpty[i];
+            }
+            pairsH += other.pairsH;
+            pairsV += other.pairsV;
+            for (int d = 0; d < gaps.length; d++) {
+                gaps[d] += other.gaps[d];
+            }
+        }
+
+        //一对相邻的格子，first在左（上），second在右（下），与DataHelper.countPair()相同
+        void pair(int first, int second, boolean horizontal) {
+            if (first == 0) {
+                if (second != 0) {
+                    gaps[(horizontal ? Direction.LEFT : Direction.TOP).ordinal()]++;
+                }
+            } else if (second == 0) {
+                gaps[(horizontal ? Direction.RIGHT : Direction.BOTTOM).ordinal()]++;
+            } else if (first == second) {
+                if (horizontal) {
+                    pairsH++;
+                } else {
+                    pairsV++;
+                }
+            }
+        }
+    }
+
+    //连续的若干行（列）：滑动，然后统计条带内部
+    private static class Stripe extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        int[][] tiles;
+        Direction direction;
+        int from, to;
+        final Transitions transitions = new Transitions(64);
+        final Counts counts = new Counts();
+        boolean changed;
+        int score, max;
+
+        @Override
+        protected void compute() {
+            transitions.clear();
+            changed = false;
+            score = max = 0;
+            int number = tiles.length;
+            for (int line = from; line < to; line++) {
+                switch (direction) {
+                    case LEFT: slide(line, 0, 0, 1); break;
+                    case RIGHT: slide(line, number - 1, 0, -1); break;
+                    case TOP: slide(0, line, 1, 0); break;
+                    default: slide(number - 1, line, -1, 0); break;
+                }
+            }
+            count(direction == Direction.LEFT || direction == Direction.RIGHT);
+        }
+
+        //与DataHelper.goLeft()相同的游标算法，第k格是(row + k * dRow, column + k * dColumn)
+        private void slide(int row, int column, int dRow, int dColumn) {
+            int number = tiles.length;
+            int position = 0;    //辅助游标
+            int last = -1;       //游标处的瓷砖在transitions中的下标，-1表示它原地不动、还没有条目
+            int first = tiles[row][column];
+            if (max < first) max = first;
+            for (int k = 1; k < number; k++) {
+                int r = row + k * dRow, c = column + k * dColumn;
+                int value = tiles[r][c];
+                if (value == 0)
+                    continue;
+                int pr = row + position * dRow, pc = column + position * dColumn;
+                int target = tiles[pr][pc];
+                if (target == 0) {                                  // [p:0, k:2, 2, 4] -> [p:2, k:0, 2, 4]
+                    tiles[pr][pc] = value;
+                    tiles[r][c] = 0;
+                    last = transitions.add(r * number + c, pr * number + pc, value, 0);
+                    changed = true;
+                } else if (target == value) {                       // [p:2, 0, k:2, 4] -> [4, p:0, k:0, 4]
+                    if (last < 0) {                                 //原地不动的瓷砖被合并，补一个条目
+                        transitions.add(pr * number + pc, pr * number + pc, target, Transitions.MERGED);
+                    } else {
+                        transitions.addFlags(last, Transitions.MERGED);
+                    }
+                    transitions.add(r * number + c, pr * number + pc, value, Transitions.MERGED | Transitions.ABSORBED);
+                    value += target;
+                    tiles[pr][pc] = value;
+                    tiles[r][c] = 0;
+                    score += value;
+                    changed = true;
+                    ++position;
+                } else {                                            // [p:2, k:4, 8, 16] -> [2, p:k:4, 8, 16]
+                    ++position;
+                    pr += dRow;
+                    pc += dColumn;
+                    if (position < k) {
+                        tiles[pr][pc] = value;
+                        tiles[r][c] = 0;
+                        changed = true;
+                        last = transitions.add(r * number + c, pr * number + pc, value, 0);
+                    } else {
+                        last = -1;
+                    }
+                }
+                if (max < value) max = value;
+            }
+        }
+
+        //统计条带内的空格和相邻格，跨越条带边界的相邻格留给合并时统计
+        private void count(boolean rows) {
+            int number = tiles.length;
+            counts.clear(number);
+            int rowFrom = rows ? from : 0, rowTo = rows ? to : number;
+            int columnFrom = rows ? 0 : from, columnTo = rows ? number : to;
+            for (int i = rowFrom; i < rowTo; i++) {
+                for (int j = columnFrom; j < columnTo; j++) {
+                    if (tiles[i][j] == 0) {
+                        counts.empty++;
+                        counts.rowEmpty[i]++;
+                    }
+                    if (j < columnTo - 1) counts.pair(tiles[i][j], tiles[i][j + 1], true);
+                    if (i < rowTo - 1) counts.pair(tiles[i][j], tiles[i + 1][j], false);
+                }
+            }
+        }
+    }
+}
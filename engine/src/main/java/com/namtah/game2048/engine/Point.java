@@ -0,0 +1,13 @@
+package com.namtah.game2048.engine;
+
+/**
+ * 面板上的一个位置，x是行，y是列，见{@link DataHelper#getNewTile(int)}
+ */
+public class Point {
+    public int x, y;
+
+    public Point(int x, int y) {
+        this.x = x;
+        this.y = y;
+    }
+}
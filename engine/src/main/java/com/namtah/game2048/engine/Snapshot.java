@@ -0,0 +1,177 @@
+package com.namtah.game2048.engine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * 一局游戏的存档：面板（每块瓷砖一个字节的指数，见{@link ByteBoard}）、分数、最高分和是否已经赢过。
+ *
+ * 二进制格式（大端）：
+ * <pre>
+ * int   MAGIC
+ * byte  VERSION
+ * byte  阶数n
+ * byte  标志，最低位为是否已经赢过
+ * long  分数
+ * long  最高分
+ * byte[n * n] 瓷砖指数，按行存放
+ * int   以上所有字节的CRC32
+ * </pre>
+ * 16阶面板的存档也只有283个字节。{@link #writeTo(File)}先写临时文件再重命名，中途被杀死也不会留下半个存档。
+ */
+public final class Snapshot {
+
+    static final int MAGIC = 0x32303438;        //"2048"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 1 + 8 + 8;
+    private static final int FLAG_WIN = 1;
+
+    private final ByteBoard mBoard;
+    private final long score, bestScore;
+    private final boolean win;
+
+    /**
+     * @param board 面板，存档保存的是它的副本
+     * @param score 分数
+     * @param bestScore 最高分
+     * @param win 是否已经赢过
+     */
+    public Snapshot(ByteBoard board, long score, long bestScore, boolean win) {
+        if (board.getNumber() > 0xff) {
+            throw new IllegalArgumentException("The number must be at most 255, but you set " + board.getNumber() + "!");
+        }
+        this.mBoard = new ByteBoard(board);
+        this.score = score;
+        this.bestScore = bestScore;
+        this.win = win;
+    }
+
+    /**
+     * 获取面板的副本
+     * @return 面板
+     */
+    public ByteBoard getBoard() {
+        return new ByteBoard(mBoard);
+    }
+
+    public int getNumber() {
+        return mBoard.getNumber();
+    }
+
+    public long getScore() {
+        return score;
+    }
+
+    public long getBestScore() {
+        return bestScore;
+    }
+
+    public boolean isWin() {
+        return win;
+    }
+
+    /**
+     * 编码成二进制格式
+     * @return 存档的字节
+     */
+    public byte[] toBytes() {
+        byte[] cells = mBoard.getCells();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + cells.length + 4);
+        buffer.putInt(MAGIC)
+                .put((byte) VERSION)
+                .put((byte) mBoard.getNumber())
+                .put((byte) (win ? FLAG_WIN : 0))
+                .putLong(score)
+                .putLong(bestScore)
+                .put(cells);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * 从二进制格式解码
+     * @param bytes 存档的字节
+     * @return 存档
+     * @throws IOException 格式、版本或校验和不对
+     */
+    public static Snapshot fromBytes(byte[] bytes) throws IOException {
+        if (bytes.length < HEADER_SIZE + 4) {
+            throw new IOException("Snapshot is too short: " + bytes.length + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a snapshot");
+        }
+        int version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        int number = buffer.get() & 0xff;
+        int flags = buffer.get();
+        long score = buffer.getLong();
+        long bestScore = buffer.getLong();
+        if (bytes.length != HEADER_SIZE + number * number + 4) {
+            throw new IOException("Snapshot of " + number + " rows has wrong length " + bytes.length);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        if (ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt() != (int) crc.getValue()) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+        ByteBoard board = new ByteBoard(number);
+        buffer.get(board.getCells());
+        return new Snapshot(board, score, bestScore, (flags & FLAG_WIN) != 0);
+    }
+
+    /**
+     * 原子地写入文件：先写同目录下的临时文件并同步到磁盘，再重命名覆盖
+     * @param file 存档文件
+     * @throws IOException 写入失败
+     */
+    public void writeTo(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(toBytes());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Can not rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * 从文件读取存档
+     * @param file 存档文件
+     * @return 存档，文件不存在时返回null
+     * @throws IOException 读取失败或文件损坏
+     */
+    public static Snapshot readFrom(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        return fromBytes(bytes);
+    }
+}
@@ -0,0 +1,119 @@
+package com.namtah.game2048.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 在后台线程中把{@link Snapshot}写入文件。
+ *
+ * 只保留最新提交的一份存档：写入还没开始时又提交了新的存档，旧的直接被丢弃，
+ * 所以连续快速地走很多步也只会写最后一步。
+ */
+public class SnapshotWriter {
+
+    private final File mFile;
+    private final AtomicReference<Snapshot> mPending = new AtomicReference<>();
+    private final ExecutorService mExecutor;
+    private volatile IOException mLastError;
+    private volatile Metrics.Counter mSubmits, mWrites;     //性能指标，没有设置时为null
+    private volatile Metrics.Timer mWriteTimer;
+
+    private final Runnable mWrite = new Runnable() {
+        @Override
+        public void run() {
+            Snapshot snapshot = mPending.getAndSet(null);
+            if (snapshot == null) {
+                return;
+            }
+            try {
+                long start = System.nanoTime();
+                snapshot.writeTo(mFile);
+                Metrics.Timer timer = mWriteTimer;
+                Metrics.Counter writes = mWrites;
+                if (timer != null && writes != null) {
+                    timer.recordSince(start);
+                    writes.increment();
+                }
+                mLastError = null;
+            } catch (IOException e) {
+                mLastError = e;
+            }
+        }
+    };
+
+    /**
+     * @param file 存档文件
+     */
+    public SnapshotWriter(File file) {
+        mFile = file;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SnapshotWriter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * 提交一份存档，立即返回
+     * @param snapshot 存档
+     */
+    public void submit(Snapshot snapshot) {
+        Metrics.Counter submits = mSubmits;
+        if (submits != null) {
+            submits.increment();
+        }
+        if (mPending.getAndSet(snapshot) == null) {
+            mExecutor.execute(mWrite);
+        }
+    }
+
+    /**
+     * 设置性能指标，之后记录提交的份数、实际写入的次数和每次写入的耗时
+     * @param metrics 性能指标，为null时不记录
+     */
+    public void setMetrics(Metrics metrics) {
+        if (metrics == null) {
+            mWriteTimer = null;
+            mSubmits = mWrites = null;
+            return;
+        }
+        mSubmits = metrics.counter(Metrics.SNAPSHOT_SUBMITS);
+        mWrites = metrics.counter(Metrics.SNAPSHOT_WRITES);
+        mWriteTimer = metrics.timer(Metrics.SNAPSHOT_WRITE);
+    }
+
+    /**
+     * 最近一次写入失败的原因
+     * @return 写入失败的异常，最近一次写入成功时为null
+     */
+    public IOException getLastError() {
+        return mLastError;
+    }
+
+    /**
+     * 写完已提交的存档后结束后台线程，之后不能再提交
+     * @param timeoutMillis 最多等待多久（毫秒），0表示不等待
+     */
+    public void close(long timeoutMillis) {
+        mExecutor.shutdown();
+        if (timeoutMillis > 0) {
+            try {
+                mExecutor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
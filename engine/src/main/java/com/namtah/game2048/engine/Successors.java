@@ -0,0 +1,230 @@
+package com.namtah.game2048.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 在后台预先计算当前面板向四个方向滑动后的结果（面板、动画增量、分数和最大值），
+ * 动画播放期间CPU本来是空闲的，下一次滑动时直接换上算好的{@link DataHelper}，不用再滑动一遍。
+ *
+ * 每走一步（生成新瓷砖之后）调用{@link #submit(DataHelper)}，滑动时调用{@link #take(Direction)}；
+ * 面板被其它方式改变（重新开始、读档、撤销）时调用{@link #invalidate()}。
+ * 除了后台线程，所有方法都应在同一个线程（UI线程）中调用。
+ *
+ * 算好的DataHelper不论是被取走、作废，还是在计算中途被取消，都会交还给备用池复用，
+ * 交还由作废的一方和后台线程在{@link Task}上同步决定，不会漏掉也不会交还两次。
+ */
+public class Successors {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final int MAX_SPARE = 8;
+
+    private final Random mRandom;
+    private final List<DataHelper> mSpare = new ArrayList<>();     //可以复用的DataHelper，后台线程也会访问
+    private ExecutorService mExecutor;
+    private Task mTask;                                             //正在计算或已经算好的任务
+    private Future<DataHelper[]> mPending;                          //mTask对应的Future，用于取消和判断是否算好
+    private volatile ParallelMover mMover;                          //新创建的DataHelper使用的并行滑动
+    private volatile Metrics mMetrics;                              //新创建的DataHelper使用的性能指标
+
+    /**
+     * @param random 算好的DataHelper生成新瓷砖用的随机数，应与当前面板的相同，对局才能重现
+     */
+    public Successors(Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * 设置大面板的并行滑动，之后新创建的DataHelper都使用它，见{@link DataHelper#setParallelMover(ParallelMover)}
+     * @param mover 并行滑动，为null时逐行处理
+     */
+    public void setParallelMover(ParallelMover mover) {
+        mMover = mover;
+    }
+
+    /**
+     * 设置新创建的DataHelper使用的性能指标，换上之后生成新瓷砖等会记在里面，见{@link DataHelper#setMetrics(Metrics)}。
+     * 后台预先计算的滑动不一定会被走，不记录
+     * @param metrics 性能指标，为null时不记录
+     */
+    public void setMetrics(Metrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * 开始在后台计算当前面板的四个后继，之前的结果作废
+     * @param current 当前面板，只在调用时复制一份
+     */
+    public synchronized void submit(DataHelper current) {
+        invalidate();
+        if (mExecutor == null) {
+            mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Successors");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        mTask = new Task(current.toByteBoard());
+        mPending = mExecutor.submit(mTask);
+    }
+
+    /**
+     * 是否已经算好，算好之前{@link #take(Direction)}返回null
+     * @return 是否算好
+     */
+    public synchronized boolean isReady() {
+        return mPending != null && mPending.isDone() && !mPending.isCancelled();
+    }
+
+    /**
+     * 取出向某个方向滑动后的结果，其它方向的结果作废
+     * @param direction 方向
+     * @return 滑动后的面板（还没有生成新瓷砖），还没算好或者该方向不能走时返回null，此时应当自己滑动
+     */
+    public synchronized DataHelper take(Direction direction) {
+        if (!isReady()) {
+            invalidate();
+            return null;
+        }
+        DataHelper[] results = mTask.takeResults();
+        mTask = null;
+        mPending = null;
+        if (results == null) {
+            return null;
+        }
+        DataHelper result = results[direction.ordinal()];
+        for (DataHelper helper : results) {
+            if (helper != null && helper != result) {
+                recycle(helper);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 放弃未完成或未取走的结果，面板被重新开始、读档或撤销时调用
+     */
+    public synchronized void invalidate() {
+        if (mPending == null) {
+            return;
+        }
+        //已经算好的结果在这里交还，还没算完的由后台线程看到取消后自己交还
+        recycleAll(mTask.takeResults());
+        mPending.cancel(true);
+        mTask = null;
+        mPending = null;
+    }
+
+    /**
+     * 交还一个不再使用的DataHelper（例如换上新结果后旧的那个），供以后计算时复用
+     * @param helper 不再使用的DataHelper
+     */
+    public void recycle(DataHelper helper) {
+        synchronized (mSpare) {
+            if (mSpare.size() < MAX_SPARE) {
+                mSpare.add(helper);
+            }
+        }
+    }
+
+    /**
+     * 结束后台线程，之后仍然可以再次{@link #submit(DataHelper)}
+     */
+    public synchronized void shutdown() {
+        invalidate();
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+        synchronized (mSpare) {
+            mSpare.clear();
+        }
+    }
+
+    private DataHelper obtain(int number) {
+        DataHelper helper = null;
+        synchronized (mSpare) {
+            for (int i = mSpare.size() - 1; i >= 0; i--) {
+                if (mSpare.get(i).getNumber() == number) {
+                    helper = mSpare.remove(i);
+                    break;
+                }
+            }
+        }
+        if (helper == null) {
+            helper = new DataHelper(mRandom);
+            helper.setTiles(new int[number][number]);
+        }
+        helper.setParallelMover(mMover);
+        if (helper.getMetrics() != mMetrics) {
+            helper.setMetrics(mMetrics);
+        }
+        return helper;
+    }
+
+    private void recycleAll(DataHelper[] helpers) {
+        if (helpers == null) {
+            return;
+        }
+        for (DataHelper helper : helpers) {
+            if (helper != null) {
+                recycle(helper);
+            }
+        }
+    }
+
+    //一次后台计算。结果只交出一次：要么被takeResults()取走，要么在取消后由后台线程自己交还
+    private class Task implements Callable<DataHelper[]> {
+
+        private final ByteBoard mBoard;
+        private boolean mTaken;                 //结果是否已经被取走或作废，在this上同步
+        private DataHelper[] mResults;          //算完后交出的结果，在this上同步
+
+        Task(ByteBoard board) {
+            mBoard = board;
+        }
+
+        @Override
+        public DataHelper[] call() {
+            DataHelper[] results = new DataHelper[DIRECTIONS.length];
+            for (Direction direction : DIRECTIONS) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                DataHelper helper = obtain(mBoard.getNumber());
+                helper.setByteBoard(mBoard);
+                if (helper.move(direction)) {
+                    results[direction.ordinal()] = helper;
+                } else {
+                    recycle(helper);
+                }
+            }
+            synchronized (this) {
+                if (!mTaken) {
+                    mResults = results;
+                    return results;
+                }
+            }
+            //已经作废（可能只算了一部分），没有人会再来取，自己交还
+            recycleAll(results);
+            return null;
+        }
+
+        //取走结果，之后再算完的结果由后台线程交还
+        synchronized DataHelper[] takeResults() {
+            mTaken = true;
+            DataHelper[] results = mResults;
+            mResults = null;
+            return results;
+        }
+    }
+}
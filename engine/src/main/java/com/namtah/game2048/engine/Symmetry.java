@@ -0,0 +1,142 @@
+package com.namtah.game2048.engine;
+
+/**
+ * 面板的8种对称（4种旋转以及它们的镜像）。四个方向的滑动在对称下保持不变：
+ * 对面板做某种对称后向对应的方向滑动，等于先滑动再做这种对称，所以对称的面板估值相同，只需要搜索和缓存一次。
+ *
+ * 对称用0~7编号，依次做（从低位到高位判断）：第2位 转置，第0位 左右镜像，第1位 上下翻转。
+ * {@link #canonical(long)}从8种对称中选出最小的一个作为规范形式，缓存都以它为键，命中率约提高到8倍。
+ * 非4阶的面板见{@link ByteBoard#canonicalize()}。
+ */
+public final class Symmetry {
+
+    public static final int COUNT = 8;
+    public static final int IDENTITY = 0;
+
+    static final int MIRROR = 1;
+    static final int FLIP = 2;
+    static final int TRANSPOSE = 4;
+
+    private Symmetry() {
+
+    }
+
+    /**
+     * 对位棋盘做某种对称
+     * @param board 位棋盘
+     * @param symmetry 对称编号
+     * @return 对称后的位棋盘
+     */
+    public static long apply(long board, int symmetry) {
+        if ((symmetry & TRANSPOSE) != 0) {
+            board = Board4.transpose(board);
+        }
+        if ((symmetry & MIRROR) != 0) {
+            board = Board4.mirror(board);
+        }
+        if ((symmetry & FLIP) != 0) {
+            board = Board4.flip(board);
+        }
+        return board;
+    }
+
+    /**
+     * 规范形式：8种对称中（按有符号long比较）最小的一个，互为对称的面板得到同一个值
+     * @param board 位棋盘
+     * @return 规范形式的位棋盘
+     */
+    public static long canonical(long board) {
+        long m = Board4.mirror(board);
+        long t = Board4.transpose(board);
+        long tm = Board4.mirror(t);
+        long min = Math.min(board, m);
+        min = Math.min(min, Board4.flip(board));
+        min = Math.min(min, Board4.flip(m));
+        min = Math.min(min, t);
+        min = Math.min(min, tm);
+        min = Math.min(min, Board4.flip(t));
+        return Math.min(min, Board4.flip(tm));
+    }
+
+    /**
+     * 把位棋盘变成规范形式所做的对称，即apply(board, canonicalSymmetry(board)) == canonical(board)，
+     * 有多种对称都得到规范形式时返回编号最小的
+     * @param board 位棋盘
+     * @return 对称编号
+     */
+    public static int canonicalSymmetry(long board) {
+        int best = IDENTITY;
+        long min = board;
+        for (int symmetry = 1; symmetry < COUNT; symmetry++) {
+            long b = apply(board, symmetry);
+            if (b < min) {
+                min = b;
+                best = symmetry;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 对面板做某种对称后，原来的方向对应的方向
+     * @param direction 原面板上的方向
+     * @param symmetry 对称编号
+     * @return 对称后面板上的方向
+     */
+    public static Direction apply(Direction direction, int symmetry) {
+        if ((symmetry & TRANSPOSE) != 0) {
+            direction = transpose(direction);
+        }
+        if ((symmetry & MIRROR) != 0) {
+            direction = mirror(direction);
+        }
+        if ((symmetry & FLIP) != 0) {
+            direction = flip(direction);
+        }
+        return direction;
+    }
+
+    /**
+     * {@link #apply(Direction, int)}的逆运算：对称后面板上的方向换算回原面板
+     * @param direction 对称后面板上的方向
+     * @param symmetry 对称编号
+     * @return 原面板上的方向
+     */
+    public static Direction restore(Direction direction, int symmetry) {
+        if ((symmetry & FLIP) != 0) {
+            direction = flip(direction);
+        }
+        if ((symmetry & MIRROR) != 0) {
+            direction = mirror(direction);
+        }
+        if ((symmetry & TRANSPOSE) != 0) {
+            direction = transpose(direction);
+        }
+        return direction;
+    }
+
+    private static Direction transpose(Direction direction) {
+        switch (direction) {
+            case LEFT: return Direction.TOP;
+            case TOP: return Direction.LEFT;
+            case RIGHT: return Direction.BOTTOM;
+            default: return Direction.RIGHT;
+        }
+    }
+
+    private static Direction mirror(Direction direction) {
+        switch (direction) {
+            case LEFT: return Direction.RIGHT;
+            case RIGHT: return Direction.LEFT;
+            default: return direction;
+        }
+    }
+
+    private static Direction flip(Direction direction) {
+        switch (direction) {
+            case TOP: return Direction.BOTTOM;
+            case BOTTOM: return Direction.TOP;
+            default: return direction;
+        }
+    }
+}
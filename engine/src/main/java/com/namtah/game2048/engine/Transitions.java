@@ -0,0 +1,121 @@
+package com.namtah.game2048.engine;
+
+/**
+ * 一步的动画增量：滑动前动了的瓷砖从哪个格子到哪个格子、是否合并，以及随后新生成的瓷砖。
+ * 格子用下标row * number + column表示。
+ *
+ * 原地不动的瓷砖没有条目，绘制时直接从面板读取；原地不动但被合并进来的瓷砖有一个起点和终点相同、带{@link #MERGED}的条目。
+ * 所以面板上不是任何条目终点的非空格子，就是原地不动的瓷砖。
+ *
+ * 由{@link DataHelper}的滑动和生成方法写入，数组重复使用，只在容量不够时扩大。
+ * 条目数与这一步动了的瓷砖数成正比，与面板面积和瓷砖总数无关。
+ */
+public final class Transitions {
+
+    public static final int MERGED = 1;         //目标格子是合并出来的（合并的两块都有此标志）
+    public static final int ABSORBED = 2;       //这块瓷砖合并进目标格子的另一块，滑动结束后消失
+    public static final int SPAWNED = 4;        //新生成的瓷砖，起点和终点相同
+
+    private int[] mFrom, mTo, mValue, mFlags;
+    private int size;
+
+    Transitions(int capacity) {
+        capacity = Math.max(capacity, 4);
+        mFrom = new int[capacity];
+        mTo = new int[capacity];
+        mValue = new int[capacity];
+        mFlags = new int[capacity];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * 添加一个条目
+     * @return 条目的下标
+     */
+    int add(int from, int to, int value, int flags) {
+        if (size == mFrom.length) {
+            grow();
+        }
+        mFrom[size] = from;
+        mTo[size] = to;
+        mValue[size] = value;
+        mFlags[size] = flags;
+        return size++;
+    }
+
+    //按顺序追加另一组的所有条目，并行滑动时合并各条带的结果
+    void addAll(Transitions other) {
+        while (size + other.size > mFrom.length) {
+            grow();
+        }
+        System.arraycopy(other.mFrom, 0, mFrom, size, other.size);
+        System.arraycopy(other.mTo, 0, mTo, size, other.size);
+        System.arraycopy(other.mValue, 0, mValue, size, other.size);
+        System.arraycopy(other.mFlags, 0, mFlags, size, other.size);
+        size += other.size;
+    }
+
+    void addFlags(int index, int flags) {
+        mFlags[index] |= flags;
+    }
+
+    //去掉末尾新生成的条目，重复生成时不会越积越多
+    void removeSpawned() {
+        while (size > 0 && (mFlags[size - 1] & SPAWNED) != 0) {
+            --size;
+        }
+    }
+
+    private void grow() {
+        int capacity = mFrom.length * 2;
+        mFrom = copyOf(mFrom, capacity);
+        mTo = copyOf(mTo, capacity);
+        mValue = copyOf(mValue, capacity);
+        mFlags = copyOf(mFlags, capacity);
+    }
+
+    private int[] copyOf(int[] array, int capacity) {
+        int[] result = new int[capacity];
+        System.arraycopy(array, 0, result, 0, size);
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index 条目下标
+     * @return 滑动前所在的格子
+     */
+    public int getFrom(int index) {
+        return mFrom[index];
+    }
+
+    /**
+     * @param index 条目下标
+     * @return 滑动后所在的格子
+     */
+    public int getTo(int index) {
+        return mTo[index];
+    }
+
+    /**
+     * @param index 条目下标
+     * @return 滑动前（合并前）的瓷砖数值，新生成的瓷砖为生成的数值
+     */
+    public int getValue(int index) {
+        return mValue[index];
+    }
+
+    /**
+     * @param index 条目下标
+     * @return {@link #MERGED}、{@link #ABSORBED}、{@link #SPAWNED}的组合
+     */
+    public int getFlags(int index) {
+        return mFlags[index];
+    }
+}
@@ -0,0 +1,113 @@
+package com.namtah.game2048.engine;
+
+import java.util.Arrays;
+
+/**
+ * 置换表，缓存搜索过的位棋盘（见{@link Board4}）的估值，避免同一局面被重复搜索。
+ * 调用者通常以规范形式（{@link Symmetry#canonical(long)}）为键，让对称的局面共用一项。
+ *
+ * 容量固定（2的幂），开放寻址、线性探测，最多探测{@link #PROBES}个位置，
+ * 都被占用时替换其中搜索深度最浅的一项。三个平行的基本类型数组保存数据，存取不产生垃圾。
+ * 此类不是线程安全的。
+ */
+public class TranspositionTable {
+
+    static final int PROBES = 4;
+
+    private final long[] mKeys;                 //位棋盘
+    private final float[] mValues;              //估值
+    private final byte[] mDepths;               //搜索深度 + 1，0表示该位置为空
+    private final int mMask;
+    private long hits, misses;                  //命中、未命中次数
+
+    /**
+     * @param bits 容量为 2^bits 项
+     */
+    public TranspositionTable(int bits) {
+        if (bits < 4 || bits > 28) {
+            throw new IllegalArgumentException("bits must be in [4, 28], but you set " + bits + "!");
+        }
+        int capacity = 1 << bits;
+        mKeys = new long[capacity];
+        mValues = new float[capacity];
+        mDepths = new byte[capacity];
+        mMask = capacity - 1;
+    }
+
+    static int hash(long board) {
+        long h = board * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * 查找某个局面的估值
+     * @param board 位棋盘
+     * @param depth 需要的搜索深度，缓存的深度不小于它才算命中
+     * @return 估值，未命中返回{@link Float#NaN}
+     */
+    public float get(long board, int depth) {
+        int index = hash(board) & mMask;
+        for (int i = 0; i < PROBES; i++) {
+            int p = (index + i) & mMask;
+            if (mDepths[p] == 0) {
+                break;
+            }
+            if (mKeys[p] == board) {
+                if (mDepths[p] - 1 >= depth) {
+                    ++hits;
+                    return mValues[p];
+                }
+                break;
+            }
+        }
+        ++misses;
+        return Float.NaN;
+    }
+
+    /**
+     * 保存某个局面的估值
+     * @param board 位棋盘
+     * @param depth 搜索深度
+     * @param value 估值
+     */
+    public void put(long board, int depth, float value) {
+        int index = hash(board) & mMask;
+        int victim = index;
+        for (int i = 0; i < PROBES; i++) {
+            int p = (index + i) & mMask;
+            if (mDepths[p] == 0 || mKeys[p] == board) {
+                victim = p;
+                break;
+            }
+            if (mDepths[p] < mDepths[victim]) {
+                victim = p;
+            }
+        }
+        if (mKeys[victim] == board && mDepths[victim] - 1 > depth) {
+            return;
+        }
+        mKeys[victim] = board;
+        mValues[victim] = value;
+        mDepths[victim] = (byte) (depth + 1);
+    }
+
+    /**
+     * 清空置换表
+     */
+    public void clear() {
+        Arrays.fill(mDepths, (byte) 0);
+        hits = misses = 0;
+    }
+
+    public int capacity() {
+        return mKeys.length;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,190 @@
+package com.namtah.game2048.simulator;
+
+import com.namtah.game2048.engine.Board4;
+import com.namtah.game2048.engine.ByteBoard;
+import com.namtah.game2048.engine.DataHelper;
+import com.namtah.game2048.engine.Direction;
+import com.namtah.game2048.engine.HintEngine;
+import com.namtah.game2048.engine.NTupleNetwork;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * 内置的几种走法策略
+ */
+public final class Policies {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private Policies() {
+
+    }
+
+    /**
+     * 按名字创建策略工厂
+     * @param name random、greedy、search[:深度]或network:权重文件
+     * @return 策略工厂
+     * @throws IOException 无法读取权重文件
+     */
+    public static Policy.Factory byName(String name) throws IOException {
+        if (name.equals("random")) {
+            return new Policy.Factory() {
+                @Override
+                public Policy create() {
+                    return new RandomPolicy();
+                }
+            };
+        }
+        if (name.equals("greedy")) {
+            return new Policy.Factory() {
+                @Override
+                public Policy create() {
+                    return new GreedyPolicy();
+                }
+            };
+        }
+        if (name.equals("search") || name.startsWith("search:")) {
+            final int depth = name.equals("search") ? 2 : Integer.parseInt(name.substring("search:".length()));
+            return new Policy.Factory() {
+                @Override
+                public Policy create() {
+                    return new SearchPolicy(depth);
+                }
+            };
+        }
+        if (name.startsWith("network:")) {
+            //所有线程共用一份只读映射的权重
+            final NTupleNetwork network = NTupleNetwork.map(new File(name.substring("network:".length())), false);
+            return new Policy.Factory() {
+                @Override
+                public Policy create() {
+                    return new NetworkPolicy(network);
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unknown policy " + name + ", expected random, greedy, search[:depth] or network:file");
+    }
+
+    /**
+     * 在可以走的方向中随机选一个
+     */
+    public static class RandomPolicy implements Policy {
+        @Override
+        public Direction choose(DataHelper helper, Random random) {
+            int mask = helper.getMovableMask();
+            //第k个可以走的方向，k随机
+            int k = random.nextInt(Integer.bitCount(mask));
+            while (k-- > 0) {
+                mask &= mask - 1;
+            }
+            return DIRECTIONS[Integer.numberOfTrailingZeros(mask)];
+        }
+    }
+
+    /**
+     * 选这一步得分最多的方向，得分相同时选空格最多的，仍然相同时随机
+     */
+    public static class GreedyPolicy implements Policy {
+
+        private ByteBoard mBoard, mScratch;         //当前面板和试走用的面板，阶数变化时重新创建
+
+        @Override
+        public Direction choose(DataHelper helper, Random random) {
+            int number = helper.getNumber();
+            if (mBoard == null || mBoard.getNumber() != number) {
+                mBoard = new ByteBoard(number);
+                mScratch = new ByteBoard(number);
+            }
+            for (int i = 0; i < number; i++) {
+                for (int j = 0; j < number; j++) {
+                    int value = helper.get(i, j);
+                    mBoard.set(i, j, value == 0 ? 0 : Integer.numberOfTrailingZeros(value));
+                }
+            }
+            Direction best = null;
+            long bestScore = -1;
+            int bestEmpty = -1, ties = 0;
+            for (Direction direction : DIRECTIONS) {
+                if (!helper.canMove(direction)) {
+                    continue;
+                }
+                mScratch.copyFrom(mBoard);
+                mScratch.move(direction);
+                long score = mScratch.getStepScore();
+                int empty = mScratch.countEmpty();
+                if (score > bestScore || (score == bestScore && empty > bestEmpty)) {
+                    best = direction;
+                    bestScore = score;
+                    bestEmpty = empty;
+                    ties = 1;
+                } else if (score == bestScore && empty == bestEmpty && random.nextInt(++ties) == 0) {
+                    best = direction;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * 用{@link HintEngine}搜索到固定深度，只支持4阶面板；
+     * 面板无法用位棋盘表示时（出现32768）退回到贪心
+     */
+    public static class SearchPolicy implements Policy {
+
+        private final int mDepth;
+        private final HintEngine mEngine = new HintEngine();
+        private final GreedyPolicy mFallback = new GreedyPolicy();
+
+        public SearchPolicy(int depth) {
+            mDepth = depth;
+        }
+
+        @Override
+        public Direction choose(DataHelper helper, Random random) {
+            if (!helper.isPacked()) {
+                return mFallback.choose(helper, random);
+            }
+            HintEngine.Hint hint = mEngine.searchDepth(helper.getPackedBoard(), mDepth);
+            Direction best = hint == null ? null : hint.getBest();
+            return best != null && helper.canMove(best) ? best : mFallback.choose(helper, random);
+        }
+    }
+
+    /**
+     * 选“本步得分 + 后态估值”最大的方向，估值来自训练好的{@link NTupleNetwork}，只支持4阶面板；
+     * 面板无法用位棋盘表示时退回到贪心
+     */
+    public static class NetworkPolicy implements Policy {
+
+        private final NTupleNetwork mNetwork;
+        private final GreedyPolicy mFallback = new GreedyPolicy();
+
+        public NetworkPolicy(NTupleNetwork network) {
+            mNetwork = network;
+        }
+
+        @Override
+        public Direction choose(DataHelper helper, Random random) {
+            if (!helper.isPacked()) {
+                return mFallback.choose(helper, random);
+            }
+            long board = helper.getPackedBoard();
+            Direction best = null;
+            float bestTotal = Float.NEGATIVE_INFINITY;
+            for (Direction direction : DIRECTIONS) {
+                long after = Board4.move(board, direction);
+                if (after == board) {
+                    continue;
+                }
+                float total = Board4.score(board, direction) + mNetwork.evaluate(after);
+                if (total > bestTotal) {
+                    best = direction;
+                    bestTotal = total;
+                }
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.namtah.game2048.simulator;
+
+import com.namtah.game2048.engine.DataHelper;
+import com.namtah.game2048.engine.Direction;
+
+import java.util.Random;
+
+/**
+ * 走法策略：给定当前面板选择下一步的方向。
+ * 每个工作线程通过{@link Factory}创建自己的实例，实现可以放心地复用内部的临时数据。
+ */
+public interface Policy {
+
+    /**
+     * 选择下一步
+     * @param helper 当前面板，至少有一个方向可以走（见{@link DataHelper#getMovableMask()}）
+     * @param random 本线程的随机数
+     * @return 方向，必须是可以走的方向
+     */
+    Direction choose(DataHelper helper, Random random);
+
+    /**
+     * 为每个工作线程创建策略
+     */
+    interface Factory {
+        Policy create();
+    }
+}
@@ -0,0 +1,81 @@
+package com.namtah.game2048.simulator;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * 逐局输出结果，所有工作线程共用一个实例。
+ *
+ * 文件名以.bin结尾时写紧凑的二进制格式，每局固定{@link #RECORD_SIZE}个字节（大端）：
+ * <pre>
+ * long 对局编号, long 分数, byte 最大瓷砖的指数, int 步数, long 耗时（纳秒）
+ * </pre>
+ * 否则写CSV，第一行是表头：game,score,max_tile,moves,nanos
+ */
+public class ResultWriter implements Closeable {
+
+    public static final int RECORD_SIZE = 8 + 8 + 1 + 4 + 8;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final DataOutputStream mOut;
+    private final boolean mBinary;
+    private final StringBuilder mLine = new StringBuilder(64);
+
+    /**
+     * @param file 输出文件
+     * @throws IOException 无法创建文件
+     */
+    public ResultWriter(File file) throws IOException {
+        this(new FileOutputStream(file), file.getName().endsWith(".bin"));
+    }
+
+    /**
+     * @param out 输出流
+     * @param binary 是否写二进制格式
+     * @throws IOException 写入表头失败
+     */
+    public ResultWriter(OutputStream out, boolean binary) throws IOException {
+        mOut = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        mBinary = binary;
+        if (!binary) {
+            mOut.write("game,score,max_tile,moves,nanos\n".getBytes(ASCII));
+        }
+    }
+
+    /**
+     * 写一局的结果
+     * @param game 对局编号
+     * @param score 分数
+     * @param maxExponent 最大瓷砖的指数
+     * @param moves 步数
+     * @param nanos 耗时（纳秒）
+     * @throws IOException 写入失败
+     */
+    public synchronized void write(long game, long score, int maxExponent, int moves, long nanos) throws IOException {
+        if (mBinary) {
+            mOut.writeLong(game);
+            mOut.writeLong(score);
+            mOut.writeByte(maxExponent);
+            mOut.writeInt(moves);
+            mOut.writeLong(nanos);
+        } else {
+            mLine.setLength(0);
+            mLine.append(game).append(',').append(score).append(',').append(1L << maxExponent)
+                    .append(',').append(moves).append(',').append(nanos).append('\n');
+            for (int i = 0; i < mLine.length(); i++) {
+                mOut.write(mLine.charAt(i));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mOut.close();
+    }
+}
@@ -0,0 +1,204 @@
+package com.namtah.game2048.simulator;
+
+import com.namtah.game2048.engine.DataHelper;
+import com.namtah.game2048.engine.Direction;
+import com.namtah.game2048.engine.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无界面的自我对弈模拟，用{@link DataHelper}的规则在所有核上同时下很多局，用于平衡性测试（例如新瓷砖的概率）。
+ *
+ * 每个工作线程有自己的面板、随机数和策略，从共享的计数器领取对局编号；
+ * 每局开始时随机数的种子由总种子和对局编号决定，所以同样的参数得到同样的结果，与线程数无关。
+ * 逐局结果写入{@link ResultWriter}（可选），结束后打印{@link Summary}。
+ *
+ * 用法：
+ * <pre>
+ * --games N       对局数，默认10000
+ * --size N        阶数，默认4
+ * --policy NAME   random（默认）、greedy、search[:深度]或network:权重文件，见{@link Policies#byName(String)}
+ * --threads N     线程数，默认为CPU核数
+ * --seed N        总种子，默认随机
+ * --four P        新瓷砖是4的概率，默认{@link DataHelper#DEFAULT_PROBABILITY_FOUR}
+ * --out FILE      逐局结果，.bin结尾写二进制，否则写CSV
+ * --metrics FMT   结束后打印引擎的性能指标，text或json，见{@link Metrics}
+ * </pre>
+ */
+public class Simulator {
+
+    private final int mSize;
+    private final Policy.Factory mPolicy;
+    private final long mSeed;
+    private final float mProbabilityFour;
+    private final ResultWriter mWriter;
+    private final AtomicLong mNextGame = new AtomicLong();
+    private final long mGames;
+    private Metrics mMetrics;
+
+    public Simulator(long games, int size, Policy.Factory policy, long seed, float probabilityFour, ResultWriter writer) {
+        mGames = games;
+        mSize = size;
+        mPolicy = policy;
+        mSeed = seed;
+        mProbabilityFour = probabilityFour;
+        mWriter = writer;
+    }
+
+    /**
+     * 设置性能指标，所有工作线程的面板共用，见{@link DataHelper#setMetrics(Metrics)}
+     * @param metrics 性能指标，为null时不记录
+     */
+    public void setMetrics(Metrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * 用多个线程下完所有对局
+     * @param threads 线程数
+     * @return 所有对局的统计
+     * @throws IOException 写逐局结果失败
+     * @throws InterruptedException 等待时被中断
+     */
+    public Summary run(int threads) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Summary>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(new Callable<Summary>() {
+                @Override
+                public Summary call() throws IOException {
+                    return work();
+                }
+            }));
+        }
+        executor.shutdown();
+        Summary summary = new Summary();
+        try {
+            for (Future<Summary> future : futures) {
+                summary.merge(future.get());
+            }
+        } catch (ExecutionException e) {
+            executor.shutdownNow();
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        return summary;
+    }
+
+    //一个工作线程：不断领取对局编号直到下完
+    private Summary work() throws IOException {
+        Summary summary = new Summary();
+        Random random = new Random();
+        DataHelper helper = new DataHelper(random);
+        helper.setTiles(new int[mSize][mSize]);
+        helper.setProbabilityFour(mProbabilityFour);
+        helper.setMetrics(mMetrics);
+        Policy policy = mPolicy.create();
+        long game;
+        while ((game = mNextGame.getAndIncrement()) < mGames) {
+            random.setSeed(mSeed ^ (game * 0x9E3779B97F4A7C15L));
+            long start = System.nanoTime();
+            helper.clear();
+            helper.putTwoNewTile();
+            long score = 0;
+            int moves = 0;
+            while (helper.checkAccessibility()) {
+                Direction direction = policy.choose(helper, random);
+                helper.go(direction);
+                score += helper.getStepScore();
+                helper.putOneNewTile();
+                ++moves;
+            }
+            long nanos = System.nanoTime() - start;
+            int maxExponent = maxExponent(helper);
+            summary.add(score, maxExponent, moves, nanos);
+            if (mWriter != null) {
+                mWriter.write(game, score, maxExponent, moves, nanos);
+            }
+        }
+        return summary;
+    }
+
+    private static int maxExponent(DataHelper helper) {
+        int max = 0;
+        for (int i = 0; i < helper.getNumber(); i++) {
+            for (int j = 0; j < helper.getNumber(); j++) {
+                max = Math.max(max, helper.get(i, j));
+            }
+        }
+        return Integer.numberOfTrailingZeros(max);
+    }
+
+    public static void main(String[] args) throws Exception {
+        long games = 10000;
+        int size = 4;
+        String policy = "random";
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = new Random().nextLong();
+        float four = DataHelper.DEFAULT_PROBABILITY_FOUR;
+        String out = null;
+        String metrics = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].isEmpty()) {
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                usage("Missing value for " + args[i]);
+            }
+            switch (args[i]) {
+                case "--games": games = Long.parseLong(args[++i]); break;
+                case "--size": size = Integer.parseInt(args[++i]); break;
+                case "--policy": policy = args[++i]; break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--four": four = Float.parseFloat(args[++i]); break;
+                case "--out": out = args[++i]; break;
+                case "--metrics": metrics = args[++i]; break;
+                default: usage("Unknown option " + args[i]);
+            }
+        }
+
+        ResultWriter writer = out == null ? null : new ResultWriter(new File(out));
+        System.out.printf("%d games, size %d, policy %s, %d threads, seed %d, four %.3f%n",
+                games, size, policy, threads, seed, four);
+        if (metrics != null && !metrics.equals("text") && !metrics.equals("json")) {
+            usage("Unknown metrics format " + metrics);
+        }
+        Simulator simulator = new Simulator(games, size, Policies.byName(policy), seed, four, writer);
+        if (metrics != null) {
+            simulator.setMetrics(new Metrics());
+        }
+        long start = System.nanoTime();
+        Summary summary;
+        try {
+            summary = simulator.run(threads);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        summary.print(System.out, System.nanoTime() - start);
+        if (metrics != null) {
+            System.out.println(metrics.equals("json") ? simulator.mMetrics.toJson() : simulator.mMetrics.toText());
+        }
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("usage: Simulator [--games N] [--size N] [--policy random|greedy|search[:depth]|network:file]"
+                + " [--threads N] [--seed N] [--four P] [--out FILE(.csv|.bin)] [--metrics text|json]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,107 @@
+package com.namtah.game2048.simulator;
+
+import com.namtah.game2048.engine.Board4;
+import com.namtah.game2048.engine.DataHelper;
+import com.namtah.game2048.engine.Direction;
+import com.namtah.game2048.engine.ParallelHintEngine;
+
+import java.util.Random;
+
+/**
+ * 测量{@link ParallelHintEngine}相对单线程搜索的加速比并打印出来。
+ *
+ * 测试局面取自随机策略的对局（每局下到一半时的面板），所有线程数都搜索同一组局面到同一深度，
+ * 加速比 = 单线程总耗时 / 并行总耗时，见{@link ParallelHintEngine#measureSpeedup(long[], int, int...)}。
+ * 先整体跑一遍作为预热，让JIT编译好搜索代码，再正式测量。
+ *
+ * 用法：
+ * <pre>
+ * --boards N      局面数，默认20
+ * --depth N       搜索深度，默认5
+ * --threads LIST  逗号分隔的线程数，默认1,2,4,8
+ * --seed N        生成局面的种子，默认1
+ * </pre>
+ */
+public class Speedup {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    //用随机策略下count局，每局取中间的一个面板
+    static long[] sampleBoards(int count, long seed) {
+        Random random = new Random(seed);
+        long[] boards = new long[count];
+        long[] history = new long[4096];
+        for (int n = 0; n < count; n++) {
+            long board = spawn(spawn(0, random), random);
+            int steps = 0;
+            while (steps < history.length) {
+                history[steps++] = board;
+                long after = board;
+                for (int tries = 0; tries < 8 && after == board; tries++) {
+                    after = Board4.move(board, DIRECTIONS[random.nextInt(DIRECTIONS.length)]);
+                }
+                if (after == board) {
+                    break;
+                }
+                board = spawn(after, random);
+            }
+            boards[n] = history[steps / 2];
+        }
+        return boards;
+    }
+
+    //在随机的空格生成2或4，概率与DataHelper相同
+    private static long spawn(long board, Random random) {
+        int k = random.nextInt(Board4.countEmpty(board));
+        int exponent = random.nextFloat() >= DataHelper.DEFAULT_PROBABILITY_FOUR ? 1 : 2;
+        for (int shift = 0; ; shift += 4) {
+            if ((board >>> shift & 0xf) == 0 && k-- == 0) {
+                return board | (long) exponent << shift;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int count = 20;
+        int depth = 5;
+        int[] threads = {1, 2, 4, 8};
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].isEmpty()) {
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                usage("Missing value for " + args[i]);
+            }
+            switch (args[i]) {
+                case "--boards": count = Integer.parseInt(args[++i]); break;
+                case "--depth": depth = Integer.parseInt(args[++i]); break;
+                case "--threads": threads = parseList(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default: usage("Unknown option " + args[i]);
+            }
+        }
+        long[] boards = sampleBoards(count, seed);
+        System.out.printf("%d boards, depth %d, %d CPUs%n", count, depth, Runtime.getRuntime().availableProcessors());
+        ParallelHintEngine.measureSpeedup(boards, depth, threads);       //预热
+        double[] speedups = ParallelHintEngine.measureSpeedup(boards, depth, threads);
+        for (int i = 0; i < threads.length; i++) {
+            System.out.printf("%3d threads  speedup %5.2fx%n", threads[i], speedups[i]);
+        }
+    }
+
+    private static int[] parseList(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("usage: Speedup [--boards N] [--depth N] [--threads 1,2,4,8] [--seed N]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,85 @@
+package com.namtah.game2048.simulator;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * 一批对局的统计：分数分布和最大瓷砖直方图。
+ * 每个工作线程各有一个，结束后用{@link #merge(Summary)}合并，不需要加锁。
+ */
+public class Summary {
+
+    private long[] mScores = new long[1024];
+    private int mGames;
+    private final long[] mMaxTiles = new long[32];     //下标为最大瓷砖的指数
+    private long mMoves, mNanos;
+
+    public void add(long score, int maxExponent, int moves, long nanos) {
+        if (mGames == mScores.length) {
+            mScores = Arrays.copyOf(mScores, mScores.length * 2);
+        }
+        mScores[mGames++] = score;
+        mMaxTiles[maxExponent]++;
+        mMoves += moves;
+        mNanos += nanos;
+    }
+
+    public void merge(Summary other) {
+        if (mGames + other.mGames > mScores.length) {
+            mScores = Arrays.copyOf(mScores, Math.max(mScores.length * 2, mGames + other.mGames));
+        }
+        System.arraycopy(other.mScores, 0, mScores, mGames, other.mGames);
+        mGames += other.mGames;
+        for (int e = 0; e < mMaxTiles.length; e++) {
+            mMaxTiles[e] += other.mMaxTiles[e];
+        }
+        mMoves += other.mMoves;
+        mNanos += other.mNanos;
+    }
+
+    public int getGames() {
+        return mGames;
+    }
+
+    public long getMoves() {
+        return mMoves;
+    }
+
+    /**
+     * 打印分数百分位和最大瓷砖直方图，会对分数排序
+     * @param out 输出
+     * @param wallNanos 总耗时（纳秒），用来计算每秒（每小时）的局数
+     */
+    public void print(PrintStream out, long wallNanos) {
+        if (mGames == 0) {
+            out.println("no games");
+            return;
+        }
+        Arrays.sort(mScores, 0, mGames);
+        double sum = 0;
+        for (int i = 0; i < mGames; i++) {
+            sum += mScores[i];
+        }
+        double seconds = wallNanos / 1e9;
+        out.printf("games %d in %.2f s: %.0f games/s (%.2f million/h), %.0f moves/s, %.1f us/game per thread%n",
+                mGames, seconds, mGames / seconds, mGames / seconds * 3600 / 1e6, mMoves / seconds, mNanos / 1e3 / mGames);
+        out.printf("score mean %.1f  min %d  p10 %d  p25 %d  p50 %d  p75 %d  p90 %d  p99 %d  max %d%n",
+                sum / mGames, mScores[0], percentile(0.10), percentile(0.25), percentile(0.50),
+                percentile(0.75), percentile(0.90), percentile(0.99), mScores[mGames - 1]);
+        out.println("max tile      games        %     >= %");
+        long atLeast = mGames;
+        for (int e = 0; e < mMaxTiles.length; e++) {
+            if (mMaxTiles[e] > 0) {
+                out.printf("%8d %10d %8.3f %8.3f%n", 1L << e, mMaxTiles[e],
+                        mMaxTiles[e] * 100.0 / mGames, atLeast * 100.0 / mGames);
+            }
+            atLeast -= mMaxTiles[e];
+        }
+    }
+
+    //最近秩法，调用前分数已排序
+    private long percentile(double p) {
+        int rank = (int) Math.ceil(p * mGames);
+        return mScores[Math.max(rank - 1, 0)];
+    }
+}
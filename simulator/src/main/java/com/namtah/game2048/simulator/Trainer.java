@@ -0,0 +1,195 @@
+package com.namtah.game2048.simulator;
+
+import com.namtah.game2048.engine.Board4;
+import com.namtah.game2048.engine.DataHelper;
+import com.namtah.game2048.engine.Direction;
+import com.namtah.game2048.engine.NTupleNetwork;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用TD(0)自我对弈训练4阶面板的{@link NTupleNetwork}。
+ *
+ * 每步选“本步得分 + 后态估值”最大的方向，然后用下一步的结果修正上一个后态的估值：
+ * V(s') += alpha * (r' + V(s'') - V(s'))，对局结束时目标为0。
+ * 对局在{@link Board4}上进行，规则与{@link DataHelper}的4阶面板相同。
+ * 多个线程共享同一个网络并且不加锁地更新（Hogwild），权重文件可写地映射进内存，训练结果直接写入文件。
+ *
+ * 用法：
+ * <pre>
+ * --weights FILE  权重文件，不存在时从全0开始，默认ntuple.bin
+ * --games N       对局数，默认100000
+ * --threads N     线程数，默认为CPU核数
+ * --alpha A       学习率（每项权重），默认0.0025
+ * --seed N        总种子，默认随机
+ * </pre>
+ */
+public class Trainer {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final long REPORT_INTERVAL_NANOS = 5000000000L;
+
+    private final NTupleNetwork mNetwork;
+    private final float mAlpha;
+    private final long mGames;
+    private final long mSeed;
+    private final AtomicLong mNextGame = new AtomicLong();
+    private final AtomicLong mFinished = new AtomicLong();
+    private final AtomicLong mScoreSum = new AtomicLong();      //自上次报告以来
+    private final AtomicLong mReached2048 = new AtomicLong();   //自上次报告以来
+
+    public Trainer(NTupleNetwork network, float alpha, long games, long seed) {
+        mNetwork = network;
+        mAlpha = alpha;
+        mGames = games;
+        mSeed = seed;
+    }
+
+    /**
+     * 用多个线程下完所有对局，每隔几秒打印一次进度
+     * @param threads 线程数
+     * @throws InterruptedException 等待时被中断
+     */
+    public void run(int threads) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            });
+        }
+        executor.shutdown();
+        long start = System.nanoTime(), last = start, lastGames = 0;
+        while (!executor.awaitTermination(REPORT_INTERVAL_NANOS, TimeUnit.NANOSECONDS)) {
+            long now = System.nanoTime();
+            lastGames = report(now - last, lastGames);
+            last = now;
+        }
+        report(System.nanoTime() - last, lastGames);
+        long finished = mFinished.get();
+        System.out.printf("trained %d games in %.1f s, %.0f games/s%n",
+                finished, (System.nanoTime() - start) / 1e9, finished * 1e9 / (System.nanoTime() - start));
+    }
+
+    private long report(long nanos, long lastGames) {
+        long games = mFinished.get();
+        long delta = games - lastGames;
+        if (delta > 0) {
+            System.out.printf("%10d games  %8.0f games/s  mean score %9.1f  2048 rate %6.2f%%%n",
+                    games, delta * 1e9 / nanos, (double) mScoreSum.getAndSet(0) / delta,
+                    mReached2048.getAndSet(0) * 100.0 / delta);
+        }
+        return games;
+    }
+
+    private void work() {
+        Random random = new Random();
+        long game;
+        while ((game = mNextGame.getAndIncrement()) < mGames) {
+            random.setSeed(mSeed ^ (game * 0x9E3779B97F4A7C15L));
+            long score = play(random);
+            mScoreSum.addAndGet(score);
+            mFinished.incrementAndGet();
+        }
+    }
+
+    //下一局并沿途学习，返回分数
+    private long play(Random random) {
+        long board = spawn(spawn(0, random), random);
+        long score = 0;
+        long previous = 0;                      //上一个后态
+        float previousValue = 0;
+        boolean hasPrevious = false;
+        while (true) {
+            Direction best = null;
+            long bestAfter = 0;
+            int bestReward = 0;
+            float bestValue = 0, bestTotal = Float.NEGATIVE_INFINITY;
+            for (Direction direction : DIRECTIONS) {
+                long after = Board4.move(board, direction);
+                if (after == board) {
+                    continue;
+                }
+                int reward = Board4.score(board, direction);
+                float value = mNetwork.evaluate(after);
+                if (reward + value > bestTotal) {
+                    best = direction;
+                    bestAfter = after;
+                    bestReward = reward;
+                    bestValue = value;
+                    bestTotal = reward + value;
+                }
+            }
+            if (best == null) {
+                if (hasPrevious) {
+                    mNetwork.update(previous, mAlpha * (0 - previousValue));
+                }
+                break;
+            }
+            if (hasPrevious) {
+                mNetwork.update(previous, mAlpha * (bestReward + bestValue - previousValue));
+            }
+            previous = bestAfter;
+            previousValue = bestValue;
+            hasPrevious = true;
+            score += bestReward;
+            board = spawn(bestAfter, random);
+        }
+        if (Board4.maxExponent(board) >= 11) {
+            mReached2048.incrementAndGet();
+        }
+        return score;
+    }
+
+    //在随机的空格生成2或4，概率与DataHelper相同
+    private static long spawn(long board, Random random) {
+        int k = random.nextInt(Board4.countEmpty(board));
+        int exponent = random.nextFloat() >= DataHelper.DEFAULT_PROBABILITY_FOUR ? 1 : 2;
+        for (int shift = 0; ; shift += 4) {
+            if ((board >>> shift & 0xf) == 0 && k-- == 0) {
+                return board | (long) exponent << shift;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String weights = "ntuple.bin";
+        long games = 100000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        float alpha = 0.0025f;
+        long seed = new Random().nextLong();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].isEmpty()) {
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                usage("Missing value for " + args[i]);
+            }
+            switch (args[i]) {
+                case "--weights": weights = args[++i]; break;
+                case "--games": games = Long.parseLong(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--alpha": alpha = Float.parseFloat(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default: usage("Unknown option " + args[i]);
+            }
+        }
+        System.out.printf("training %s: %d games, %d threads, alpha %s, seed %d%n", weights, games, threads, alpha, seed);
+        NTupleNetwork network = NTupleNetwork.map(new File(weights), true);
+        new Trainer(network, alpha, games, seed).run(threads);
+        network.flush();
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("usage: Trainer [--weights FILE] [--games N] [--threads N] [--alpha A] [--seed N]");
+        System.exit(2);
+    }
+}